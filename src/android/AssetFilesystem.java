@@ -27,11 +27,15 @@ import org.apache.cordova.LOG;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 
 public class AssetFilesystem extends Filesystem {
@@ -44,6 +48,8 @@ public class AssetFilesystem extends Filesystem {
     private static boolean listCacheFromFile;
     private static Map<String, String[]> listCache;
     private static Map<String, Long> lengthCache;
+    // Sizes of precompressed .gz and .br variants, which are left out of the listings
+    private static Map<String, Long> variantLengthCache;
 
     private static final String LOG_TAG = "AssetFilesystem";
 
@@ -55,6 +61,11 @@ public class AssetFilesystem extends Filesystem {
                     ois = new ObjectInputStream(assetManager.open("cdvasset.manifest"));
                     listCache = (Map<String, String[]>) ois.readObject();
                     lengthCache = (Map<String, Long>) ois.readObject();
+                    try {
+                        variantLengthCache = (Map<String, Long>) ois.readObject();
+                    } catch (EOFException e) {
+                        // Written by an older hook, which listed variants like any other asset.
+                    }
                     listCacheFromFile = true;
                 } catch (ClassNotFoundException e) {
                     e.printStackTrace();
@@ -77,33 +88,84 @@ public class AssetFilesystem extends Filesystem {
         }
     }
 
-    private String[] listAssets(String assetPath) throws IOException {
+    /**
+     * Drops the asset listings, which are shared by all asset filesystems. They are read from the
+     * manifest again, or listed again, when next needed.
+     */
+    @Override
+    public void trimMemory(int level) {
+        super.trimMemory(level);
+        if (isSevereTrimLevel(level)) {
+            synchronized (listCacheLock) {
+                listCache = null;
+                lengthCache = null;
+                variantLengthCache = null;
+                listCacheFromFile = false;
+            }
+        }
+    }
+
+    String[] listAssets(String assetPath) throws IOException {
         if (assetPath.startsWith("/")) {
             assetPath = assetPath.substring(1);
         }
         if (assetPath.endsWith("/")) {
             assetPath = assetPath.substring(0, assetPath.length() - 1);
         }
-        lazyInitCaches();
-        String[] ret = listCache.get(assetPath);
+        Map<String, String[]> cache;
+        boolean cacheFromFile;
+        synchronized (listCacheLock) {
+            lazyInitCaches();
+            cache = listCache;
+            cacheFromFile = listCacheFromFile;
+        }
+        String[] ret = cache.get(assetPath);
         if (ret == null) {
-            if (listCacheFromFile) {
+            if (cacheFromFile) {
                 ret = new String[0];
             } else {
-                ret = assetManager.list(assetPath);
-                listCache.put(assetPath, ret);
+                ret = withoutVariants(assetManager.list(assetPath));
+                cache.put(assetPath, ret);
             }
         }
         return ret;
     }
 
-    private long getAssetSize(String assetPath) throws FileNotFoundException {
+    /**
+     * Leaves out the precompressed .gz and .br variants of other assets in the same listing.
+     */
+    private static String[] withoutVariants(String[] names) {
+        if (names == null) {
+            return null;
+        }
+        HashSet<String> all = new HashSet<String>(Arrays.asList(names));
+        ArrayList<String> listed = new ArrayList<String>(names.length);
+        for (String name : names) {
+            boolean isVariant = (name.endsWith(".gz") || name.endsWith(".br"))
+                    && all.contains(name.substring(0, name.length() - 3));
+            if (!isVariant) {
+                listed.add(name);
+            }
+        }
+        return listed.toArray(new String[listed.size()]);
+    }
+
+    long getAssetSize(String assetPath) throws FileNotFoundException {
         if (assetPath.startsWith("/")) {
             assetPath = assetPath.substring(1);
         }
-        lazyInitCaches();
-        if (lengthCache != null) {
-            Long ret = lengthCache.get(assetPath);
+        Map<String, Long> lengths;
+        Map<String, Long> variantLengths;
+        synchronized (listCacheLock) {
+            lazyInitCaches();
+            lengths = lengthCache;
+            variantLengths = variantLengthCache;
+        }
+        if (lengths != null) {
+            Long ret = lengths.get(assetPath);
+            if (ret == null && variantLengths != null) {
+                ret = variantLengths.get(assetPath);
+            }
             if (ret == null) {
                 throw new FileNotFoundException("Asset not found: " + assetPath);
             }
@@ -133,6 +195,15 @@ public class AssetFilesystem extends Filesystem {
         }
     }
 
+    boolean assetExists(String assetPath) {
+        try {
+            getAssetSize(assetPath);
+            return true;
+        } catch (FileNotFoundException e) {
+            return false;
+        }
+    }
+
     public AssetFilesystem(AssetManager assetManager, CordovaResourceApi resourceApi, CordovaPreferences preferences) {
         super(Uri.parse("file:///android_asset/"), "assets", resourceApi, preferences);
         this.assetManager = assetManager;
@@ -174,7 +245,7 @@ public class AssetFilesystem extends Filesystem {
         return LocalFilesystemURL.parse(b.build());
     }
 
-    private boolean isDirectory(String assetPath) {
+    boolean isDirectory(String assetPath) {
         try {
             return listAssets(assetPath).length != 0;
         } catch (IOException e) {
@@ -0,0 +1,84 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.file;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.CordovaWebView;
+import org.apache.cordova.PluginResult;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+/**
+ * The callback that one step of a batch reports to. Instead of being sent to JS, its result is
+ * kept so that it can be added to the batch's results and referred to by later steps.
+ */
+class BatchStepContext extends CallbackContext {
+
+    private PluginResult result;
+
+    BatchStepContext(String callbackId, CordovaWebView webView) {
+        super(callbackId, webView);
+    }
+
+    @Override
+    public void sendPluginResult(PluginResult pluginResult) {
+        if (result == null) {
+            result = pluginResult;
+        }
+    }
+
+    /**
+     * Describes the step's result as {"ok": true, "result": value} or {"ok": false, "error": code}.
+     * Binary results are Base64 encoded and marked with "encoding": "base64".
+     */
+    JSONObject toJSON() throws JSONException {
+        JSONObject json = new JSONObject();
+        if (result == null) {
+            // The step finished without reporting a result.
+            json.put("ok", false);
+            json.put("error", FileUtils.SECURITY_ERR);
+            return json;
+        }
+
+        String message = result.getMessage();
+        if (result.getStatus() != PluginResult.Status.OK.ordinal()) {
+            Object code = message == null ? null : new JSONTokener(message).nextValue();
+            json.put("ok", false);
+            // Steps whose arguments can't be used fail without an error code.
+            json.put("error", code instanceof Integer ? code : FileUtils.SYNTAX_ERR);
+            return json;
+        }
+
+        json.put("ok", true);
+        switch (result.getMessageType()) {
+            case PluginResult.MESSAGE_TYPE_ARRAYBUFFER:
+            case PluginResult.MESSAGE_TYPE_BINARYSTRING:
+                json.put("result", message);
+                json.put("encoding", "base64");
+                break;
+            case PluginResult.MESSAGE_TYPE_NULL:
+                json.put("result", JSONObject.NULL);
+                break;
+            default:
+                json.put("result", message == null ? JSONObject.NULL : new JSONTokener(message).nextValue());
+        }
+        return json;
+    }
+}
@@ -0,0 +1,160 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.file;
+
+import android.content.ComponentCallbacks2;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Buffers for copying and reading files, shared by all filesystems, so that each operation
+ * doesn't allocate its own. Heap buffers are for streams; direct buffers are for channels, which
+ * would otherwise copy through a temporary direct buffer of their own.
+ *
+ * The pool only keeps up to a fixed number of buffers of each kind. Buffers are allocated as
+ * needed when it is empty, and dropped when they are returned to a full pool.
+ */
+class BufferPool {
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final BufferPool shared = new BufferPool(16);
+
+    private final ArrayDeque<byte[]> heap = new ArrayDeque<byte[]>();
+    private final ArrayDeque<ByteBuffer> direct = new ArrayDeque<ByteBuffer>();
+    private int maxPooled;
+    private long acquired;
+    private long reused;
+    private long discarded;
+
+    BufferPool(int maxPooled) {
+        this.maxPooled = maxPooled;
+    }
+
+    static BufferPool getShared() {
+        return shared;
+    }
+
+    /**
+     * Sets how many buffers of each kind the pool keeps, dropping any beyond that.
+     */
+    synchronized void setMaxPooled(int maxPooled) {
+        this.maxPooled = Math.max(0, maxPooled);
+        trimTo(this.maxPooled);
+    }
+
+    /**
+     * Returns a heap buffer of {@link #BUFFER_SIZE} bytes, which should be given back with
+     * {@link #release(byte[])} once it is no longer used.
+     */
+    byte[] acquire() {
+        synchronized (this) {
+            acquired++;
+            byte[] buffer = heap.poll();
+            if (buffer != null) {
+                reused++;
+                return buffer;
+            }
+        }
+        return new byte[BUFFER_SIZE];
+    }
+
+    void release(byte[] buffer) {
+        if (buffer == null || buffer.length != BUFFER_SIZE) {
+            return;
+        }
+        synchronized (this) {
+            if (heap.size() < maxPooled) {
+                heap.push(buffer);
+            } else {
+                discarded++;
+            }
+        }
+    }
+
+    /**
+     * Returns a cleared direct buffer of {@link #BUFFER_SIZE} bytes, which should be given back
+     * with {@link #releaseDirect(ByteBuffer)} once it is no longer used.
+     */
+    ByteBuffer acquireDirect() {
+        synchronized (this) {
+            acquired++;
+            ByteBuffer buffer = direct.poll();
+            if (buffer != null) {
+                reused++;
+                buffer.clear();
+                return buffer;
+            }
+        }
+        return ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    void releaseDirect(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect() || buffer.capacity() != BUFFER_SIZE) {
+            return;
+        }
+        synchronized (this) {
+            if (direct.size() < maxPooled) {
+                direct.push(buffer);
+            } else {
+                discarded++;
+            }
+        }
+    }
+
+    private void trimTo(int size) {
+        while (heap.size() > size) {
+            heap.removeLast();
+            discarded++;
+        }
+        while (direct.size() > size) {
+            direct.removeLast();
+            discarded++;
+        }
+    }
+
+    /**
+     * Releases memory in response to {@link ComponentCallbacks2#onTrimMemory(int)}.
+     */
+    synchronized void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            trimTo(0);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            trimTo(maxPooled / 2);
+        }
+    }
+
+    synchronized JSONObject getStats() throws JSONException {
+        JSONObject stats = new JSONObject();
+        stats.put("acquired", acquired);
+        stats.put("reused", reused);
+        stats.put("allocated", acquired - reused);
+        stats.put("discarded", discarded);
+        stats.put("pooledHeap", heap.size());
+        stats.put("pooledDirect", direct.size());
+        stats.put("maxPooled", maxPooled);
+        stats.put("bufferSize", BUFFER_SIZE);
+        return stats;
+    }
+}
@@ -18,16 +18,35 @@
  */
 package org.apache.cordova.file;
 
+import android.content.ComponentCallbacks2;
 import android.content.ContentResolver;
 import android.content.Context;
+import android.content.res.AssetFileDescriptor;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+import android.provider.BaseColumns;
 import android.provider.DocumentsContract;
 import android.provider.MediaStore;
 import android.provider.OpenableColumns;
+import android.text.TextUtils;
+import android.util.Base64;
+import android.util.LruCache;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.apache.cordova.CordovaPreferences;
 import org.apache.cordova.CordovaResourceApi;
@@ -38,11 +57,85 @@ public class ContentFilesystem extends Filesystem {
 
     private final Context context;
 
+    // Other providers may also report when the file was last modified under either contract's
+    // column name; providers that reject the extra columns are queried with a null projection.
+    private static final String[] OPENABLE_METADATA_PROJECTION = {
+        OpenableColumns.SIZE,
+        DocumentsContract.Document.COLUMN_LAST_MODIFIED,
+        MediaStore.MediaColumns.DATE_MODIFIED
+    };
+    private static final String[] MEDIA_METADATA_PROJECTION = {
+        MediaStore.MediaColumns.SIZE,
+        MediaStore.MediaColumns.DATE_MODIFIED,
+        MediaStore.MediaColumns.MIME_TYPE
+    };
+    private static final String[] DOCUMENT_METADATA_PROJECTION = {
+        DocumentsContract.Document.COLUMN_SIZE,
+        DocumentsContract.Document.COLUMN_LAST_MODIFIED,
+        DocumentsContract.Document.COLUMN_MIME_TYPE
+    };
+
+    // Metadata is reused for a short time, as callers tend to ask for it repeatedly
+    // (e.g. resolveLocalFileSystemURL followed by file()) and each lookup is a provider round-trip.
+    private static final long METADATA_CACHE_TTL_MS = 2000;
+    private static final int METADATA_CACHE_SIZE = 256;
+
+    private static class CachedMetadata {
+        final long size;
+        final long lastModified;
+        final String mimeType;
+        final long expiresAt;
+
+        CachedMetadata(long size, long lastModified, String mimeType, long expiresAt) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.mimeType = mimeType;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    // SQLite limits the number of bound arguments per statement
+    private static final int MAX_BATCH_QUERY_ARGS = 500;
+    private static final String[] MEDIA_BATCH_PROJECTION = {
+        BaseColumns._ID,
+        MediaStore.MediaColumns.SIZE,
+        MediaStore.MediaColumns.DATE_MODIFIED,
+        MediaStore.MediaColumns.MIME_TYPE
+    };
+
+    private static final String[] CHILD_DOCUMENT_PROJECTION = {
+        DocumentsContract.Document.COLUMN_DOCUMENT_ID,
+        DocumentsContract.Document.COLUMN_MIME_TYPE,
+        DocumentsContract.Document.COLUMN_SIZE,
+        DocumentsContract.Document.COLUMN_LAST_MODIFIED
+    };
+
+    private static class MediaBatch {
+        final Uri tableUri;
+        final Map<String, String> cacheKeysById = new LinkedHashMap<String, String>();
+
+        MediaBatch(Uri tableUri) {
+            this.tableUri = tableUri;
+        }
+    }
+
+    private final LruCache<String, CachedMetadata> metadataCache = new LruCache<String, CachedMetadata>(METADATA_CACHE_SIZE);
+
     public ContentFilesystem(Context context, CordovaResourceApi resourceApi, CordovaPreferences preferences) {
         super(Uri.parse("content://"), "content", resourceApi, preferences);
         this.context = context;
     }
 
+    @Override
+    public void trimMemory(int level) {
+        super.trimMemory(level);
+        if (isSevereTrimLevel(level)) {
+            metadataCache.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            metadataCache.trimToSize(METADATA_CACHE_SIZE / 2);
+        }
+    }
+
     @Override
     public Uri toNativeUri(LocalFilesystemURL inputURL) {
         String encodedPath = inputURL.uri.getEncodedPath();
@@ -67,6 +160,10 @@ public class ContentFilesystem extends Filesystem {
         if (!"content".equals(inputURL.getScheme())) {
             return null;
         }
+        return localUrlForContentUri(inputURL, isDocumentDirectory(inputURL));
+    }
+
+    private LocalFilesystemURL localUrlForContentUri(Uri inputURL, boolean isDirectory) {
         String subPath = inputURL.getEncodedPath();
         if (subPath.length() > 0) {
             subPath = subPath.substring(1);
@@ -77,6 +174,10 @@ public class ContentFilesystem extends Filesystem {
         if (subPath.length() > 0) {
             b.appendEncodedPath(subPath);
         }
+        if (isDirectory && !subPath.endsWith("/")) {
+            // Add trailing / for directories.
+            b.appendEncodedPath("");
+        }
         Uri localUri = b.encodedQuery(inputURL.getEncodedQuery())
             .encodedFragment(inputURL.getEncodedFragment())
             .build();
@@ -93,6 +194,7 @@ public class ContentFilesystem extends Filesystem {
     public boolean removeFileAtLocalURL(LocalFilesystemURL inputURL)
             throws NoModificationAllowedException {
         Uri contentUri = toNativeUri(inputURL);
+        metadataCache.remove(contentUri.toString());
         try {
             context.getContentResolver().delete(contentUri, null, null);
         } catch (UnsupportedOperationException t) {
@@ -112,18 +214,188 @@ public class ContentFilesystem extends Filesystem {
         throw new NoModificationAllowedException("Cannot remove content url");
     }
 
+    /**
+     * Whether the URI refers to a directory within a Storage Access Framework tree, i.e. the root
+     * of a granted tree, or a document below it with the directory mime type.
+     */
+    private boolean isDocumentDirectory(Uri nativeUri) {
+        if (!DocumentsContract.isTreeUri(nativeUri)) {
+            return false;
+        }
+        if (!DocumentsContract.isDocumentUri(context, nativeUri)) {
+            return true;
+        }
+        return DocumentsContract.Document.MIME_TYPE_DIR.equals(context.getContentResolver().getType(nativeUri));
+    }
+
+    /**
+     * Returns the document URI to query for metadata. The root of a tree is not itself a document
+     * URI, so it is mapped to the document it grants access to.
+     */
+    private Uri documentUriForQuery(Uri nativeUri) {
+        if (DocumentsContract.isTreeUri(nativeUri) && !DocumentsContract.isDocumentUri(context, nativeUri)) {
+            return DocumentsContract.buildDocumentUriUsingTree(nativeUri, DocumentsContract.getTreeDocumentId(nativeUri));
+        }
+        return nativeUri;
+    }
+
+    /**
+     * Lists the children of a directory in a Storage Access Framework tree with a single query.
+     * The metadata of each child is cached, so that the entries can be inspected afterwards
+     * without going back to the provider.
+     */
     @Override
     public LocalFilesystemURL[] listChildren(LocalFilesystemURL inputURL) throws FileNotFoundException {
-        throw new UnsupportedOperationException("readEntriesAtLocalURL() not supported for content:. Use resolveLocalFileSystemURL instead.");
+        Uri nativeUri = toNativeUri(inputURL);
+        if (nativeUri == null || !DocumentsContract.isTreeUri(nativeUri)) {
+            throw new UnsupportedOperationException("readEntriesAtLocalURL() not supported for content:. Use resolveLocalFileSystemURL instead.");
+        }
+        String documentId = DocumentsContract.isDocumentUri(context, nativeUri)
+                ? DocumentsContract.getDocumentId(nativeUri)
+                : DocumentsContract.getTreeDocumentId(nativeUri);
+        Uri childrenUri = DocumentsContract.buildChildDocumentsUriUsingTree(nativeUri, documentId);
+
+        Cursor cursor;
+        try {
+            cursor = context.getContentResolver().query(childrenUri, CHILD_DOCUMENT_PROJECTION, null, null, null);
+        } catch (RuntimeException e) {
+            // E.g. a SecurityException once the tree permission has been revoked.
+            FileNotFoundException fnfe = new FileNotFoundException("Unable to list " + nativeUri);
+            fnfe.initCause(e);
+            throw fnfe;
+        }
+        if (cursor == null) {
+            throw new FileNotFoundException("Unable to list " + nativeUri);
+        }
+
+        long expiresAt = SystemClock.elapsedRealtime() + METADATA_CACHE_TTL_MS;
+        try {
+            int idColumn = cursor.getColumnIndex(DocumentsContract.Document.COLUMN_DOCUMENT_ID);
+            LocalFilesystemURL[] entries = new LocalFilesystemURL[cursor.getCount()];
+            int count = 0;
+            while (cursor.moveToNext() && count < entries.length) {
+                Uri childUri = DocumentsContract.buildDocumentUriUsingTree(nativeUri, cursor.getString(idColumn));
+                Long size = resourceSizeForCursor(cursor);
+                Long lastModified = lastModifiedDateForCursor(cursor);
+                String mimeType = mimeTypeForCursor(cursor);
+                LocalFilesystemURL childURL = localUrlForContentUri(childUri, DocumentsContract.Document.MIME_TYPE_DIR.equals(mimeType));
+                metadataCache.put(toNativeUri(childURL).toString(), new CachedMetadata(
+                        size == null ? -1 : size.longValue(),
+                        lastModified == null ? 0 : lastModified.longValue(),
+                        mimeType,
+                        expiresAt));
+                entries[count++] = childURL;
+            }
+            return count == entries.length ? entries : Arrays.copyOf(entries, count);
+        } finally {
+            cursor.close();
+        }
     }
 
     @Override
     public JSONObject getFileMetadataForLocalURL(LocalFilesystemURL inputURL) throws FileNotFoundException {
+        Uri nativeUri = toNativeUri(inputURL);
+        String cacheKey = nativeUri.toString();
+        long now = SystemClock.elapsedRealtime();
+        CachedMetadata cached = metadataCache.get(cacheKey);
+        if (cached == null || cached.expiresAt <= now) {
+            cached = queryMetadata(documentUriForQuery(nativeUri), now + METADATA_CACHE_TTL_MS);
+            metadataCache.put(cacheKey, cached);
+        }
+
+        JSONObject metadata = new JSONObject();
+        try {
+            metadata.put("size", cached.size);
+            metadata.put("type", cached.mimeType);
+            metadata.put("name", name);
+            metadata.put("fullPath", inputURL.path);
+            metadata.put("lastModifiedDate", cached.lastModified);
+        } catch (JSONException e) {
+            return null;
+        }
+        return metadata;
+    }
+
+    /**
+     * Loads metadata for many URLs into the metadata cache at once. MediaStore item URIs
+     * (e.g. content://media/external/images/media/42) are grouped by table and resolved with one
+     * query per table, rather than one per item. Other URLs are left to be looked up individually
+     * by getFileMetadataForLocalURL.
+     */
+    public void prefetchFileMetadata(List<LocalFilesystemURL> inputURLs) {
+        Map<String, MediaBatch> batches = new HashMap<String, MediaBatch>();
+        for (LocalFilesystemURL inputURL : inputURLs) {
+            Uri nativeUri = toNativeUri(inputURL);
+            if (nativeUri == null || !MediaStore.AUTHORITY.equals(nativeUri.getAuthority())
+                    || nativeUri.getEncodedQuery() != null) {
+                continue;
+            }
+            String id = nativeUri.getLastPathSegment();
+            String encodedPath = nativeUri.getEncodedPath();
+            if (id == null || !TextUtils.isDigitsOnly(id) || encodedPath.endsWith("/")) {
+                continue;
+            }
+            String tablePath = encodedPath.substring(0, encodedPath.lastIndexOf('/'));
+            MediaBatch batch = batches.get(tablePath);
+            if (batch == null) {
+                batch = new MediaBatch(nativeUri.buildUpon().encodedPath(tablePath).build());
+                batches.put(tablePath, batch);
+            }
+            batch.cacheKeysById.put(id, nativeUri.toString());
+        }
+
+        long expiresAt = SystemClock.elapsedRealtime() + METADATA_CACHE_TTL_MS;
+        for (MediaBatch batch : batches.values()) {
+            List<String> ids = new ArrayList<String>(batch.cacheKeysById.keySet());
+            for (int start = 0; start < ids.size(); start += MAX_BATCH_QUERY_ARGS) {
+                List<String> chunk = ids.subList(start, Math.min(start + MAX_BATCH_QUERY_ARGS, ids.size()));
+                queryMediaBatch(batch, chunk.toArray(new String[chunk.size()]), expiresAt);
+            }
+        }
+    }
+
+    private void queryMediaBatch(MediaBatch batch, String[] ids, long expiresAt) {
+        StringBuilder selection = new StringBuilder(BaseColumns._ID).append(" IN (");
+        for (int i = 0; i < ids.length; i++) {
+            selection.append(i == 0 ? "?" : ",?");
+        }
+        selection.append(')');
+
+        Cursor cursor;
+        try {
+            cursor = context.getContentResolver().query(batch.tableUri, MEDIA_BATCH_PROJECTION, selection.toString(), ids, null);
+        } catch (RuntimeException e) {
+            // Leave these to be looked up one by one.
+            return;
+        }
+        if (cursor == null) {
+            return;
+        }
+        try {
+            int idColumn = cursor.getColumnIndex(BaseColumns._ID);
+            while (cursor.moveToNext()) {
+                String cacheKey = batch.cacheKeysById.get(String.valueOf(cursor.getLong(idColumn)));
+                if (cacheKey == null) {
+                    continue;
+                }
+                Long size = resourceSizeForCursor(cursor);
+                Long lastModified = lastModifiedDateForCursor(cursor);
+                metadataCache.put(cacheKey, new CachedMetadata(
+                        size == null ? -1 : size.longValue(),
+                        lastModified == null ? 0 : lastModified.longValue(),
+                        mimeTypeForCursor(cursor),
+                        expiresAt));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private CachedMetadata queryMetadata(Uri nativeUri, long expiresAt) throws FileNotFoundException {
         long size = -1;
         long lastModified = 0;
-        Uri nativeUri = toNativeUri(inputURL);
-        String mimeType = resourceApi.getMimeType(nativeUri);
-        Cursor cursor = openCursorForURL(nativeUri);
+        String mimeType = null;
+        Cursor cursor = openCursorForURL(nativeUri, metadataProjectionForURL(nativeUri));
         try {
             if (cursor != null && cursor.moveToFirst()) {
                 Long sizeForCursor = resourceSizeForCursor(cursor);
@@ -133,10 +405,18 @@ public class ContentFilesystem extends Filesystem {
                 Long modified = lastModifiedDateForCursor(cursor);
                 if (modified != null)
                     lastModified = modified.longValue();
+                mimeType = mimeTypeForCursor(cursor);
             } else {
                 // Some content providers don't support cursors at all!
-                CordovaResourceApi.OpenForReadResult offr = resourceApi.openForRead(nativeUri);
-                size = offr.length;
+                AssetFileDescriptor assetFd = context.getContentResolver().openAssetFileDescriptor(nativeUri, "r");
+                if (assetFd == null) {
+                    throw new FileNotFoundException("Unable to open content URI: " + nativeUri);
+                }
+                try {
+                    size = assetFd.getLength();
+                } finally {
+                    assetFd.close();
+                }
             }
         } catch (IOException e) {
             FileNotFoundException fnfe = new FileNotFoundException();
@@ -146,61 +426,198 @@ public class ContentFilesystem extends Filesystem {
             if (cursor != null)
                 cursor.close();
         }
+        if (mimeType == null) {
+            mimeType = resourceApi.getMimeType(nativeUri);
+        }
+        return new CachedMetadata(size, lastModified, mimeType, expiresAt);
+    }
+
+    /**
+     * Returns the columns to request when reading metadata for a URI. Providers are only required
+     * to support OpenableColumns, and some reject columns they don't know about, so the
+     * projection depends on which contract the URI belongs to.
+     */
+    protected String[] metadataProjectionForURL(Uri nativeUri) {
+        if (DocumentsContract.isDocumentUri(context, nativeUri)) {
+            return DOCUMENT_METADATA_PROJECTION;
+        } else if (MediaStore.AUTHORITY.equals(nativeUri.getAuthority())) {
+            return MEDIA_METADATA_PROJECTION;
+        }
+        return OPENABLE_METADATA_PROJECTION;
+    }
 
-        JSONObject metadata = new JSONObject();
+    /**
+     * Opens a file descriptor for the content URI, or returns null if the provider can't supply
+     * one in the requested mode (e.g. read-only providers, or ones that only serve streams).
+     */
+    ParcelFileDescriptor openFileDescriptor(Uri nativeUri, String mode) {
+        return openFileDescriptor(context.getContentResolver(), nativeUri, mode);
+    }
+
+    static ParcelFileDescriptor openFileDescriptor(ContentResolver contentResolver, Uri nativeUri, String mode) {
         try {
-            metadata.put("size", size);
-            metadata.put("type", mimeType);
-            metadata.put("name", name);
-            metadata.put("fullPath", inputURL.path);
-            metadata.put("lastModifiedDate", lastModified);
-        } catch (JSONException e) {
+            return contentResolver.openFileDescriptor(nativeUri, mode);
+        } catch (FileNotFoundException | SecurityException | UnsupportedOperationException | IllegalArgumentException e) {
             return null;
         }
-        return metadata;
+    }
+
+    private String mimeTypeForURL(Uri nativeUri) {
+        CachedMetadata cached = metadataCache.get(nativeUri.toString());
+        if (cached != null && cached.mimeType != null && cached.expiresAt > SystemClock.elapsedRealtime()) {
+            return cached.mimeType;
+        }
+        return resourceApi.getMimeType(nativeUri);
+    }
+
+    /**
+     * Reads through a file descriptor where the provider offers one, so that reading a range
+     * seeks to its start instead of reading and discarding everything before it.
+     */
+    @Override
+    public void readFileAtURL(LocalFilesystemURL inputURL, long start, long end,
+                              ReadFileCallback readFileCallback) throws IOException {
+        Uri nativeUri = toNativeUri(inputURL);
+        ParcelFileDescriptor pfd = openFileDescriptor(nativeUri, "r");
+        if (pfd == null || pfd.getStatSize() < 0) {
+            // Not backed by a regular file (e.g. a pipe), so it can only be read as a stream.
+            if (pfd != null) {
+                pfd.close();
+            }
+            super.readFileAtURL(inputURL, start, end, readFileCallback);
+            return;
+        }
+
+        FileInputStream inputStream = new ParcelFileDescriptor.AutoCloseInputStream(pfd);
+        try {
+            long length = pfd.getStatSize();
+            if (end < 0 || end > length) {
+                end = length;
+            }
+            if (start > 0) {
+                inputStream.getChannel().position(start);
+            }
+            long numBytesToRead = Math.max(0, end - start);
+            readFileCallback.handleData(new LimitedInputStream(inputStream, numBytesToRead), mimeTypeForURL(nativeUri), numBytesToRead);
+        } finally {
+            inputStream.close();
+        }
     }
 
     @Override
     public long writeToFileAtURL(LocalFilesystemURL inputURL, String data,
-            int offset, boolean isBinary) throws NoModificationAllowedException {
-        throw new NoModificationAllowedException("Couldn't write to file given its content URI");
+            int offset, boolean isBinary) throws NoModificationAllowedException, IOException {
+        Uri nativeUri = toNativeUri(inputURL);
+        metadataCache.remove(nativeUri.toString());
+        return writeToContentUri(context.getContentResolver(), nativeUri, data, offset, isBinary);
     }
+
     @Override
     public long truncateFileAtURL(LocalFilesystemURL inputURL, long size)
-            throws NoModificationAllowedException {
-        throw new NoModificationAllowedException("Couldn't truncate file given its content URI");
+            throws NoModificationAllowedException, IOException {
+        Uri nativeUri = toNativeUri(inputURL);
+        metadataCache.remove(nativeUri.toString());
+        return truncateContentUri(context.getContentResolver(), nativeUri, size);
+    }
+
+    /**
+     * Writes to a content URI through a read-write file descriptor. As with local files, the
+     * write replaces everything from the offset onwards.
+     */
+    static long writeToContentUri(ContentResolver contentResolver, Uri nativeUri, String data,
+            int offset, boolean isBinary) throws NoModificationAllowedException, IOException {
+        ParcelFileDescriptor pfd = openFileDescriptor(contentResolver, nativeUri, "rw");
+        if (pfd == null) {
+            throw new NoModificationAllowedException("Couldn't write to file given its content URI");
+        }
+
+        byte[] rawData;
+        if (isBinary) {
+            rawData = Base64.decode(data, Base64.DEFAULT);
+        } else {
+            rawData = data.getBytes(Charset.defaultCharset());
+        }
+
+        FileOutputStream out = new ParcelFileDescriptor.AutoCloseOutputStream(pfd);
+        try {
+            FileChannel channel = out.getChannel();
+            channel.truncate(offset);
+            channel.position(offset);
+            ByteBuffer buffer = ByteBuffer.wrap(rawData);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } finally {
+            out.close();
+        }
+        return rawData.length;
+    }
+
+    static long truncateContentUri(ContentResolver contentResolver, Uri nativeUri, long size)
+            throws NoModificationAllowedException, IOException {
+        ParcelFileDescriptor pfd = openFileDescriptor(contentResolver, nativeUri, "rw");
+        if (pfd == null) {
+            throw new NoModificationAllowedException("Couldn't truncate file given its content URI");
+        }
+
+        FileOutputStream out = new ParcelFileDescriptor.AutoCloseOutputStream(pfd);
+        try {
+            FileChannel channel = out.getChannel();
+            if (channel.size() >= size) {
+                channel.truncate(size);
+                return size;
+            }
+            return channel.size();
+        } finally {
+            out.close();
+        }
     }
 
     protected Cursor openCursorForURL(Uri nativeUri) {
+        return openCursorForURL(nativeUri, null);
+    }
+
+    protected Cursor openCursorForURL(Uri nativeUri, String[] projection) {
         ContentResolver contentResolver = context.getContentResolver();
         try {
-            return contentResolver.query(nativeUri, null, null, null, null);
+            return contentResolver.query(nativeUri, projection, null, null, null);
         } catch (UnsupportedOperationException e) {
             return null;
+        } catch (RuntimeException e) {
+            if (projection == null) {
+                throw e;
+            }
+            // The provider rejected one of the requested columns; fall back to all of them.
+            return openCursorForURL(nativeUri, null);
         }
     }
 
     private Long resourceSizeForCursor(Cursor cursor) {
         int columnIndex = cursor.getColumnIndex(OpenableColumns.SIZE);
-        if (columnIndex != -1) {
-            String sizeStr = cursor.getString(columnIndex);
-            if (sizeStr != null) {
-                return Long.parseLong(sizeStr);
-            }
+        if (columnIndex != -1 && !cursor.isNull(columnIndex)) {
+            return cursor.getLong(columnIndex);
         }
         return null;
     }
 
     protected Long lastModifiedDateForCursor(Cursor cursor) {
         int columnIndex = cursor.getColumnIndex(MediaStore.MediaColumns.DATE_MODIFIED);
-        if (columnIndex == -1) {
+        if (columnIndex == -1 || cursor.isNull(columnIndex)) {
             columnIndex = cursor.getColumnIndex(DocumentsContract.Document.COLUMN_LAST_MODIFIED);
         }
+        if (columnIndex != -1 && !cursor.isNull(columnIndex)) {
+            return cursor.getLong(columnIndex);
+        }
+        return null;
+    }
+
+    private String mimeTypeForCursor(Cursor cursor) {
+        int columnIndex = cursor.getColumnIndex(DocumentsContract.Document.COLUMN_MIME_TYPE);
+        if (columnIndex == -1) {
+            columnIndex = cursor.getColumnIndex(MediaStore.MediaColumns.MIME_TYPE);
+        }
         if (columnIndex != -1) {
-            String dateStr = cursor.getString(columnIndex);
-            if (dateStr != null) {
-                return Long.parseLong(dateStr);
-            }
+            return cursor.getString(columnIndex);
         }
         return null;
     }
@@ -0,0 +1,523 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.file;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.DocumentsContract;
+import android.provider.DocumentsContract.Document;
+import android.util.LruCache;
+
+import org.apache.cordova.CordovaPreferences;
+import org.apache.cordova.CordovaResourceApi;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A filesystem over a Storage Access Framework document tree that the user has granted to the app,
+ * e.g. with ACTION_OPEN_DOCUMENT_TREE. Paths are mapped onto documents by their display names.
+ *
+ * Documents are addressed by ID rather than by path, so resolving a path means finding each of its
+ * components among the children of its parent. Resolved documents are kept in an LRU cache, so
+ * warm paths resolve without any provider calls. Entries are dropped when the plugin changes the
+ * tree, and when a cached document turns out to have been removed by someone else.
+ */
+public class DocumentTreeFilesystem extends Filesystem {
+
+    private static final int DOCUMENT_CACHE_SIZE = 1024;
+
+    private static final String[] CHILD_PROJECTION = {
+        Document.COLUMN_DOCUMENT_ID,
+        Document.COLUMN_DISPLAY_NAME,
+        Document.COLUMN_MIME_TYPE
+    };
+    private static final String[] METADATA_PROJECTION = {
+        Document.COLUMN_DISPLAY_NAME,
+        Document.COLUMN_SIZE,
+        Document.COLUMN_LAST_MODIFIED,
+        Document.COLUMN_MIME_TYPE
+    };
+
+    private static class CachedDocument {
+        final String documentId;
+        final boolean isDirectory;
+
+        CachedDocument(String documentId, boolean isDirectory) {
+            this.documentId = documentId;
+            this.isDirectory = isDirectory;
+        }
+    }
+
+    private final Context context;
+    private final Uri treeUri;
+    private final CachedDocument rootDocument;
+    private final LruCache<String, CachedDocument> documentsByPath = new LruCache<String, CachedDocument>(DOCUMENT_CACHE_SIZE);
+    // Lets document URIs handed back to the plugin be mapped to paths again
+    private final LruCache<String, String> pathsByDocumentId = new LruCache<String, String>(DOCUMENT_CACHE_SIZE);
+
+    public DocumentTreeFilesystem(String name, Context context, CordovaResourceApi resourceApi, Uri treeUri, CordovaPreferences preferences) {
+        super(DocumentsContract.buildDocumentUriUsingTree(treeUri, DocumentsContract.getTreeDocumentId(treeUri)), name, resourceApi, preferences);
+        this.context = context;
+        this.treeUri = treeUri;
+        this.rootDocument = new CachedDocument(DocumentsContract.getTreeDocumentId(treeUri), true);
+    }
+
+    public Uri getTreeUri() {
+        return treeUri;
+    }
+
+    @Override
+    public void trimMemory(int level) {
+        super.trimMemory(level);
+        if (isSevereTrimLevel(level)) {
+            documentsByPath.evictAll();
+            pathsByDocumentId.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            documentsByPath.trimToSize(DOCUMENT_CACHE_SIZE / 2);
+            pathsByDocumentId.trimToSize(DOCUMENT_CACHE_SIZE / 2);
+        }
+    }
+
+    private static String cacheKey(String fullPath) {
+        int end = fullPath.length();
+        while (end > 0 && fullPath.charAt(end - 1) == '/') {
+            end--;
+        }
+        return end == 0 ? "/" : fullPath.substring(0, end);
+    }
+
+    private static String parentPath(String path) {
+        int lastSlash = path.lastIndexOf('/');
+        return lastSlash <= 0 ? "/" : path.substring(0, lastSlash);
+    }
+
+    private Uri documentUri(CachedDocument document) {
+        return DocumentsContract.buildDocumentUriUsingTree(treeUri, document.documentId);
+    }
+
+    private void cacheDocument(String path, CachedDocument document) {
+        documentsByPath.put(path, document);
+        pathsByDocumentId.put(document.documentId, path);
+    }
+
+    /**
+     * Drops the cached document at the given path, and everything below it.
+     */
+    private void invalidate(String fullPath) {
+        String path = cacheKey(fullPath);
+        String prefix = "/".equals(path) ? path : path + '/';
+        for (Map.Entry<String, CachedDocument> entry : documentsByPath.snapshot().entrySet()) {
+            if (entry.getKey().equals(path) || entry.getKey().startsWith(prefix)) {
+                documentsByPath.remove(entry.getKey());
+                pathsByDocumentId.remove(entry.getValue().documentId);
+            }
+        }
+    }
+
+    private Cursor query(Uri uri, String[] projection) {
+        try {
+            return context.getContentResolver().query(uri, projection, null, null, null);
+        } catch (IllegalArgumentException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Resolves a path to its document.
+     *
+     * @return  The document, or null if there is nothing at that path
+     */
+    private CachedDocument findDocument(String fullPath) {
+        String path = cacheKey(fullPath);
+        if ("/".equals(path)) {
+            return rootDocument;
+        }
+        CachedDocument document = documentsByPath.get(path);
+        if (document != null) {
+            return document;
+        }
+        String parentPath = parentPath(path);
+        CachedDocument parent = findDocument(parentPath);
+        if (parent == null || !parent.isDirectory) {
+            return null;
+        }
+        // Siblings are cached along the way, since they are likely to be resolved next.
+        Map<String, CachedDocument> children = listChildDocuments(parentPath, parent);
+        return children == null ? null : children.get(path.substring(path.lastIndexOf('/') + 1));
+    }
+
+    /**
+     * Lists a directory with a single query, caching each of its children.
+     *
+     * @return  The children by display name, or null if the directory could not be listed
+     */
+    private Map<String, CachedDocument> listChildDocuments(String parentPath, CachedDocument parent) {
+        Cursor cursor = query(DocumentsContract.buildChildDocumentsUriUsingTree(treeUri, parent.documentId), CHILD_PROJECTION);
+        if (cursor == null) {
+            return null;
+        }
+        Map<String, CachedDocument> children = new LinkedHashMap<String, CachedDocument>();
+        try {
+            int idColumn = cursor.getColumnIndex(Document.COLUMN_DOCUMENT_ID);
+            int nameColumn = cursor.getColumnIndex(Document.COLUMN_DISPLAY_NAME);
+            int mimeColumn = cursor.getColumnIndex(Document.COLUMN_MIME_TYPE);
+            String prefix = "/".equals(parentPath) ? "/" : parentPath + '/';
+            while (cursor.moveToNext()) {
+                String displayName = cursor.getString(nameColumn);
+                if (displayName == null || displayName.isEmpty()) {
+                    continue;
+                }
+                CachedDocument child = new CachedDocument(cursor.getString(idColumn),
+                        Document.MIME_TYPE_DIR.equals(cursor.getString(mimeColumn)));
+                cacheDocument(prefix + displayName, child);
+                children.put(displayName, child);
+            }
+        } finally {
+            cursor.close();
+        }
+        return children;
+    }
+
+    /**
+     * Queries the document at a path, resolving it again if the cached document has gone away.
+     *
+     * @return  A cursor positioned on the document, or null if there is nothing at that path
+     */
+    private Cursor queryDocument(String fullPath, String[] projection) {
+        for (int attempt = 0; attempt < 2; attempt++) {
+            CachedDocument document = findDocument(fullPath);
+            if (document == null) {
+                return null;
+            }
+            Cursor cursor = query(documentUri(document), projection);
+            if (cursor != null && cursor.moveToFirst()) {
+                return cursor;
+            }
+            if (cursor != null) {
+                cursor.close();
+            }
+            invalidate(fullPath);
+        }
+        return null;
+    }
+
+    private CachedDocument createDocument(String fullPath, boolean directory) {
+        String path = cacheKey(fullPath);
+        if ("/".equals(path)) {
+            return null;
+        }
+        CachedDocument parent = findDocument(parentPath(path));
+        if (parent == null || !parent.isDirectory) {
+            return null;
+        }
+        String displayName = path.substring(path.lastIndexOf('/') + 1);
+        String mimeType = directory ? Document.MIME_TYPE_DIR : resourceApi.getMimeType(Uri.fromFile(new File(displayName)));
+        if (mimeType == null) {
+            mimeType = "application/octet-stream";
+        }
+
+        Uri documentUri;
+        try {
+            documentUri = DocumentsContract.createDocument(context.getContentResolver(), documentUri(parent), mimeType, displayName);
+        } catch (FileNotFoundException | IllegalArgumentException | UnsupportedOperationException e) {
+            return null;
+        }
+        if (documentUri == null) {
+            return null;
+        }
+        // Providers may pick another name on collision ("name (1).ext") or append an
+        // extension; such a document doesn't live at the requested path, so undo it.
+        String actualName = queryDisplayName(documentUri);
+        if (actualName != null && !actualName.equals(displayName)) {
+            try {
+                DocumentsContract.deleteDocument(context.getContentResolver(), documentUri);
+            } catch (FileNotFoundException | IllegalArgumentException | UnsupportedOperationException e) {
+                // Nothing more we can do; the caller still reports the failure.
+            }
+            return null;
+        }
+        CachedDocument document = new CachedDocument(DocumentsContract.getDocumentId(documentUri), directory);
+        cacheDocument(path, document);
+        return document;
+    }
+
+    private String queryDisplayName(Uri documentUri) {
+        Cursor cursor = query(documentUri, new String[] { Document.COLUMN_DISPLAY_NAME });
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private boolean deleteDocument(String fullPath, CachedDocument document) throws NoModificationAllowedException {
+        if (document == rootDocument) {
+            throw new NoModificationAllowedException("Can't remove the root of a document tree");
+        }
+        try {
+            return DocumentsContract.deleteDocument(context.getContentResolver(), documentUri(document));
+        } catch (FileNotFoundException e) {
+            return false;
+        } catch (IllegalArgumentException | UnsupportedOperationException e) {
+            throw new NoModificationAllowedException("Couldn't remove the document at " + fullPath);
+        } finally {
+            invalidate(fullPath);
+        }
+    }
+
+    private Uri requireDocumentUri(LocalFilesystemURL inputURL) throws FileNotFoundException {
+        Uri nativeUri = toNativeUri(inputURL);
+        if (nativeUri == null) {
+            throw new FileNotFoundException("File at " + inputURL.uri + " does not exist.");
+        }
+        return nativeUri;
+    }
+
+    @Override
+    public Uri toNativeUri(LocalFilesystemURL inputURL) {
+        CachedDocument document = findDocument(inputURL.path);
+        return document == null ? null : documentUri(document);
+    }
+
+    @Override
+    public LocalFilesystemURL toLocalUri(Uri inputURL) {
+        if (!DocumentsContract.isTreeUri(inputURL)
+                || !treeUri.getAuthority().equals(inputURL.getAuthority())
+                || !rootDocument.documentId.equals(DocumentsContract.getTreeDocumentId(inputURL))) {
+            return null;
+        }
+        String documentId = DocumentsContract.isDocumentUri(context, inputURL)
+                ? DocumentsContract.getDocumentId(inputURL)
+                : rootDocument.documentId;
+        if (rootDocument.documentId.equals(documentId)) {
+            return localUrlForPath("/", true);
+        }
+        // Only documents that have been reached through this filesystem can be mapped back.
+        String path = pathsByDocumentId.get(documentId);
+        CachedDocument document = path == null ? null : documentsByPath.get(path);
+        return document == null ? null : localUrlForPath(path, document.isDirectory);
+    }
+
+    @Override
+    public LocalFilesystemURL localUrlforFullPath(String fullPath) {
+        if (fullPath == null) {
+            return null;
+        }
+        CachedDocument document = findDocument(fullPath);
+        return localUrlForPath(fullPath, document != null ? document.isDirectory : fullPath.endsWith("/"));
+    }
+
+    @Override
+    public LocalFilesystemURL URLforFilesystemPath(String path) {
+        return null;
+    }
+
+    @Override
+    public String filesystemPathForURL(LocalFilesystemURL url) {
+        return null;
+    }
+
+    @Override
+    public JSONObject getFileForLocalURL(LocalFilesystemURL inputURL,
+            String path, JSONObject options, boolean directory) throws FileExistsException, IOException, TypeMismatchException, EncodingException, JSONException {
+        boolean create = false;
+        boolean exclusive = false;
+
+        if (options != null) {
+            create = options.optBoolean("create");
+            if (create) {
+                exclusive = options.optBoolean("exclusive");
+            }
+        }
+
+        // Check for a ":" character in the file to line up with BB and iOS
+        if (path.contains(":")) {
+            throw new EncodingException("This path has an invalid \":\" in it.");
+        }
+
+        String fullPath;
+        if (path.startsWith("/")) {
+            fullPath = normalizePath(path);
+        } else {
+            fullPath = normalizePath(inputURL.path + "/" + path);
+        }
+
+        CachedDocument document = findDocument(fullPath);
+        if (create) {
+            if (exclusive && document != null) {
+                throw new FileExistsException("create/exclusive fails");
+            }
+            if (document == null) {
+                document = createDocument(fullPath, directory);
+            }
+            if (document == null) {
+                throw new FileExistsException("create fails");
+            }
+        } else {
+            if (document == null) {
+                throw new FileNotFoundException("path does not exist");
+            }
+            if (directory && !document.isDirectory) {
+                throw new TypeMismatchException("path doesn't exist or is file");
+            } else if (!directory && document.isDirectory) {
+                throw new TypeMismatchException("path doesn't exist or is directory");
+            }
+        }
+
+        return makeEntryForURL(localUrlForPath(fullPath, document.isDirectory));
+    }
+
+    @Override
+    public boolean removeFileAtLocalURL(LocalFilesystemURL inputURL) throws InvalidModificationException, NoModificationAllowedException {
+        CachedDocument document = findDocument(inputURL.path);
+        if (document == null) {
+            return false;
+        }
+        if (document.isDirectory) {
+            // You can't delete a directory that is not empty
+            Cursor cursor = query(DocumentsContract.buildChildDocumentsUriUsingTree(treeUri, document.documentId),
+                    new String[] { Document.COLUMN_DOCUMENT_ID });
+            if (cursor != null) {
+                try {
+                    if (cursor.getCount() > 0) {
+                        throw new InvalidModificationException("You can't delete a directory that is not empty.");
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+        }
+        return deleteDocument(inputURL.path, document);
+    }
+
+    @Override
+    public boolean recursiveRemoveFileAtLocalURL(LocalFilesystemURL inputURL) throws FileExistsException, NoModificationAllowedException {
+        CachedDocument document = findDocument(inputURL.path);
+        // Document providers remove directories along with their contents.
+        if (document == null || !deleteDocument(inputURL.path, document)) {
+            throw new FileExistsException("could not delete: " + inputURL.path);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean exists(LocalFilesystemURL inputURL) {
+        return findDocument(inputURL.path) != null;
+    }
+
+    @Override
+    public LocalFilesystemURL[] listChildren(LocalFilesystemURL inputURL) throws FileNotFoundException {
+        CachedDocument document = findDocument(inputURL.path);
+        if (document == null) {
+            // The directory we are listing doesn't exist so we should fail.
+            throw new FileNotFoundException();
+        }
+        if (!document.isDirectory) {
+            return null;
+        }
+
+        String path = cacheKey(inputURL.path);
+        Map<String, CachedDocument> children = listChildDocuments(path, document);
+        if (children == null) {
+            invalidate(path);
+            throw new FileNotFoundException();
+        }
+        String prefix = "/".equals(path) ? "/" : path + '/';
+        LocalFilesystemURL[] entries = new LocalFilesystemURL[children.size()];
+        int i = 0;
+        for (Map.Entry<String, CachedDocument> child : children.entrySet()) {
+            entries[i++] = localUrlForPath(prefix + child.getKey(), child.getValue().isDirectory);
+        }
+        return entries;
+    }
+
+    @Override
+    public JSONObject getFileMetadataForLocalURL(LocalFilesystemURL inputURL) throws FileNotFoundException {
+        Cursor cursor = queryDocument(inputURL.path, METADATA_PROJECTION);
+        if (cursor == null) {
+            throw new FileNotFoundException("File at " + inputURL.uri + " does not exist.");
+        }
+
+        JSONObject metadata = new JSONObject();
+        try {
+            String mimeType = cursor.getString(cursor.getColumnIndex(Document.COLUMN_MIME_TYPE));
+            boolean isDirectory = Document.MIME_TYPE_DIR.equals(mimeType);
+            int sizeColumn = cursor.getColumnIndex(Document.COLUMN_SIZE);
+            int lastModifiedColumn = cursor.getColumnIndex(Document.COLUMN_LAST_MODIFIED);
+
+            // Ensure that directories report a size of 0
+            metadata.put("size", isDirectory || cursor.isNull(sizeColumn) ? 0 : cursor.getLong(sizeColumn));
+            metadata.put("type", isDirectory ? null : mimeType);
+            metadata.put("name", cursor.getString(cursor.getColumnIndex(Document.COLUMN_DISPLAY_NAME)));
+            metadata.put("fullPath", inputURL.path);
+            metadata.put("lastModifiedDate", cursor.isNull(lastModifiedColumn) ? 0 : cursor.getLong(lastModifiedColumn));
+        } catch (JSONException e) {
+            return null;
+        } finally {
+            cursor.close();
+        }
+        return metadata;
+    }
+
+    @Override
+    public CordovaResourceApi.OpenForReadResult openForRead(LocalFilesystemURL inputURL) throws IOException {
+        return resourceApi.openForRead(requireDocumentUri(inputURL));
+    }
+
+    @Override
+    public OutputStream getOutputStreamForURL(LocalFilesystemURL inputURL) throws IOException {
+        CachedDocument document = findDocument(inputURL.path);
+        if (document == null) {
+            document = createDocument(inputURL.path, false);
+        }
+        if (document == null) {
+            throw new FileNotFoundException("Couldn't create the document at " + inputURL.path);
+        }
+        return context.getContentResolver().openOutputStream(documentUri(document), "wt");
+    }
+
+    @Override
+    public long writeToFileAtURL(LocalFilesystemURL inputURL, String data,
+            int offset, boolean isBinary) throws NoModificationAllowedException, IOException {
+        return ContentFilesystem.writeToContentUri(context.getContentResolver(), requireDocumentUri(inputURL), data, offset, isBinary);
+    }
+
+    @Override
+    public long truncateFileAtURL(LocalFilesystemURL inputURL, long size)
+            throws NoModificationAllowedException, IOException {
+        return ContentFilesystem.truncateContentUri(context.getContentResolver(), requireDocumentUri(inputURL), size);
+    }
+
+    @Override
+    public boolean canRemoveFileAtLocalURL(LocalFilesystemURL inputURL) {
+        return exists(inputURL);
+    }
+}
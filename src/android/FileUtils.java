@@ -20,11 +20,16 @@ package org.apache.cordova.file;
 
 import android.Manifest;
 import android.app.Activity;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.pm.PackageManager;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.Configuration;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Environment;
+import android.os.SystemClock;
+import android.provider.DocumentsContract;
 import android.util.Base64;
 import android.util.Log;
 import android.webkit.MimeTypeMap;
@@ -45,16 +50,27 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * This class provides file and directory services to JavaScript.
@@ -62,6 +78,15 @@ import java.util.HashSet;
 public class FileUtils extends CordovaPlugin {
     private static final String LOG_TAG = "FileUtils";
 
+    // The name path handler requests are counted under in the statistics
+    private static final String PATH_HANDLER_ACTION = "pathHandler";
+
+    // How long reads stay limited after the system last reported critically low memory
+    private static final long LOW_MEMORY_READ_LIMIT_MILLIS = 30 * 1000;
+
+    // Smaller than FileReader.READ_CHUNK_SIZE, so that FileReader switches to smaller chunks
+    private static final int DEFAULT_LOW_MEMORY_READ_LIMIT = 64 * 1024;
+
     public static int NOT_FOUND_ERR = 1;
     public static int SECURITY_ERR = 2;
     public static int ABORT_ERR = 3;
@@ -94,6 +119,66 @@ public class FileUtils extends CordovaPlugin {
 
     private PendingRequests pendingRequests;
 
+    // Cache-Control header sent with path handler responses, or null to send none
+    private String pathHandlerCacheControl;
+
+    // Last-Modified time reported for assets served by the path handler
+    private long assetsLastModified = -1;
+
+    // Whether the path handler serves .br/.gz siblings of assets with a Content-Encoding
+    private boolean servePrecompressedAssets;
+
+    // Small resources served by the path handler, or null when the cache is disabled
+    private ResourceCache resourceCache;
+
+    // Runs the actions passed to threadhelper
+    private IoScheduler ioScheduler;
+
+    // Shares the results of identical reads that are running at the same time, or null if disabled
+    private SingleFlight singleFlight;
+
+    // Reads and writes that can be aborted
+    private final Operations operations = new Operations();
+
+    // Latency, throughput and error counts, reported by the getStats action
+    private final OperationStats stats = new OperationStats();
+
+    // Set while the steps of a batch run, so that threadhelper runs them on the batch's thread
+    private final ThreadLocal<Boolean> runInline = new ThreadLocal<Boolean>();
+
+    // The largest range readFileAs reads into memory while memory is critically low
+    private volatile long lowMemoryReadLimit;
+
+    // Until when (in SystemClock.elapsedRealtime) reads are limited to lowMemoryReadLimit
+    private volatile long lowMemoryUntil;
+
+    private final ComponentCallbacks2 memoryCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            if (level == TRIM_MEMORY_RUNNING_CRITICAL || level >= TRIM_MEMORY_COMPLETE) {
+                lowMemoryUntil = SystemClock.elapsedRealtime() + LOW_MEMORY_READ_LIMIT_MILLIS;
+            }
+            if (resourceCache != null) {
+                resourceCache.trimMemory(level);
+            }
+            if (filesystems != null) {
+                for (Filesystem fs : filesystems) {
+                    fs.trimMemory(level);
+                }
+            }
+            BufferPool.getShared().trimMemory(level);
+        }
+
+        @Override
+        public void onLowMemory() {
+            onTrimMemory(TRIM_MEMORY_COMPLETE);
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+        }
+    };
+
     // This field exists only to support getEntry, below, which has been deprecated
     private static FileUtils filePlugin;
 
@@ -101,11 +186,15 @@ public class FileUtils extends CordovaPlugin {
         void run(JSONArray args) throws Exception;
     }
 
-    private ArrayList<Filesystem> filesystems;
+    private List<Filesystem> filesystems;
+
+    // Maps each path handler keyword (e.g. "__cdvfile_persistent__") to its filesystem
+    private final Map<String, Filesystem> pathHandlerRoutes = new ConcurrentHashMap<String, Filesystem>();
 
     public void registerFilesystem(Filesystem fs) {
         if (fs != null && filesystemForName(fs.name) == null) {
             this.filesystems.add(fs);
+            this.pathHandlerRoutes.put(LocalFilesystemURL.fsNameToCdvKeyword(fs.name), fs);
         }
     }
 
@@ -169,7 +258,8 @@ public class FileUtils extends CordovaPlugin {
     @Override
     public void initialize(CordovaInterface cordova, CordovaWebView webView) {
         super.initialize(cordova, webView);
-        this.filesystems = new ArrayList<Filesystem>();
+        // Document tree filesystems can be registered while other operations are running
+        this.filesystems = new CopyOnWriteArrayList<Filesystem>();
         this.pendingRequests = new PendingRequests();
 
         String tempRoot = null;
@@ -216,10 +306,63 @@ public class FileUtils extends CordovaPlugin {
             this.registerFilesystem(new LocalFilesystem("temporary", webView.getContext(), webView.getResourceApi(), tmpRootFile, preferences));
             this.registerFilesystem(new LocalFilesystem("persistent", webView.getContext(), webView.getResourceApi(), persistentRootFile, preferences));
             this.registerFilesystem(new ContentFilesystem(webView.getContext(), webView.getResourceApi(), preferences));
-            this.registerFilesystem(new AssetFilesystem(webView.getContext().getAssets(), webView.getResourceApi(), preferences));
+            AssetFilesystem assetFs = new AssetFilesystem(webView.getContext().getAssets(), webView.getResourceApi(), preferences);
+            this.registerFilesystem(assetFs);
 
             registerExtraFileSystems(getExtraFileSystemsPreference(activity), getAvailableFileSystems(activity));
 
+            int memoryFilesystemSize = preferences.getInteger("androidfilememoryfilesystemsize", 0);
+            if (memoryFilesystemSize > 0) {
+                this.registerFilesystem(new MemoryFilesystem("memory", webView.getResourceApi(), memoryFilesystemSize, preferences));
+            }
+
+            String overlayAssets = preferences.getString("androidfileoverlayassets", "");
+            if (!overlayAssets.isEmpty()) {
+                File overlayRoot = webView.getContext().getDir("overlay", Context.MODE_PRIVATE);
+                this.registerFilesystem(new OverlayFilesystem("overlay", webView.getContext(), assetFs, overlayAssets, overlayRoot, webView.getResourceApi(), preferences));
+            }
+
+            if (preferences.getBoolean("androidfilepackfilesystem", false)) {
+                File packRoot = webView.getContext().getDir("pack", Context.MODE_PRIVATE);
+                try {
+                    this.registerFilesystem(new PackFilesystem("pack", packRoot, webView.getResourceApi(), preferences));
+                } catch (IOException e) {
+                    LOG.e(LOG_TAG, "Unable to open the pack filesystem", e);
+                }
+            }
+
+            String cacheControl = preferences.getString("androidfilecachecontrol", "");
+            this.pathHandlerCacheControl = cacheControl.isEmpty() ? null : cacheControl;
+            try {
+                this.assetsLastModified = activity.getPackageManager().getPackageInfo(packageName, 0).lastUpdateTime;
+            } catch (PackageManager.NameNotFoundException e) {
+                LOG.d(LOG_TAG, "Unable to determine the application update time for asset validators");
+            }
+
+            this.servePrecompressedAssets = preferences.getBoolean("androidfileprecompressedassets", false);
+
+            int resourceCacheSize = preferences.getInteger("androidfileresourcecachesize", 0);
+            if (resourceCacheSize > 0) {
+                int maxEntrySize = preferences.getInteger("androidfileresourcecachemaxentrysize", 64 * 1024);
+                this.resourceCache = new ResourceCache(resourceCacheSize, maxEntrySize);
+            }
+            OperationTrace.configure(preferences.getBoolean("androidfiletrace", false),
+                    preferences.getInteger("androidfileslowoperationms", 0));
+            this.lowMemoryReadLimit = preferences.getInteger("androidfilelowmemoryreadlimit", DEFAULT_LOW_MEMORY_READ_LIMIT);
+            BufferPool.getShared().setMaxPooled(preferences.getInteger("androidfilebufferpoolsize", 16));
+            activity.getApplicationContext().registerComponentCallbacks(memoryCallbacks);
+
+            int[] laneThreads = new int[IoScheduler.Lane.values().length];
+            laneThreads[IoScheduler.Lane.INTERACTIVE.ordinal()] = preferences.getInteger("androidfileinteractivethreads", 4);
+            laneThreads[IoScheduler.Lane.STREAMING.ordinal()] = preferences.getInteger("androidfilestreamingthreads", 2);
+            laneThreads[IoScheduler.Lane.BULK.ordinal()] = preferences.getInteger("androidfilebulkthreads", 1);
+            this.ioScheduler = new IoScheduler(laneThreads,
+                    preferences.getInteger("androidfilequeuesize", 1024),
+                    preferences.getInteger("androidfilevolumethreads", 4));
+            if (preferences.getBoolean("androidfilecoalescereads", true)) {
+                this.singleFlight = new SingleFlight(webView);
+            }
+
             // Initialize static plugin reference for deprecated getEntry method
             if (filePlugin == null) {
                 FileUtils.filePlugin = this;
@@ -234,8 +377,26 @@ public class FileUtils extends CordovaPlugin {
         return filePlugin;
     }
 
+    @Override
+    public void onDestroy() {
+        cordova.getActivity().getApplicationContext().unregisterComponentCallbacks(memoryCallbacks);
+        if (ioScheduler != null) {
+            ioScheduler.shutdown();
+        }
+        for (Filesystem fs : filesystems) {
+            if (fs instanceof Closeable) {
+                try {
+                    ((Closeable) fs).close();
+                } catch (IOException e) {
+                    LOG.d(LOG_TAG, "Unable to close filesystem \"" + fs.name + "\"");
+                }
+            }
+        }
+    }
+
     private Filesystem filesystemForURL(LocalFilesystemURL localURL) {
         if (localURL == null) return null;
+        OperationTrace.describe(null, localURL.fsName);
         return filesystemForName(localURL.fsName);
     }
 
@@ -268,9 +429,92 @@ public class FileUtils extends CordovaPlugin {
             callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, "File plugin is not configured. Please see the README.md file for details on how to update config.xml"));
             return true;
         }
+        if (action.equals("abort")) {
+            // Handled right away, since the operation it aborts may be queued behind others.
+            try {
+                abort(new JSONArray(rawArgs).getString(0));
+                callbackContext.success();
+            } catch (JSONException e) {
+                callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.JSON_EXCEPTION));
+            }
+            return true;
+        }
+        if (singleFlight == null) {
+            return dispatch(action, rawArgs, callbackContext);
+        }
+        if (!isCoalescable(action)) {
+            // Anything else may change what a read that is already running would return.
+            singleFlight.close();
+            return dispatch(action, rawArgs, callbackContext);
+        }
+        // Requests only differ by operation ID when they come from different readers.
+        int operationIdStart = operationIdStart(rawArgs);
+        String operationId = null;
+        String args = rawArgs;
+        if (operationIdStart >= 0) {
+            operationId = rawArgs.substring(operationIdStart + 1, rawArgs.length() - 1).trim();
+            operationId = operationId.substring(1, operationId.length() - 1);
+            args = rawArgs.substring(0, operationIdStart);
+        }
+        CallbackContext flight = singleFlight.join(action, args, operationId, callbackContext);
+        return flight == null || dispatch(action, rawArgs, flight);
+    }
+
+    /**
+     * Finds the operation ID that FileReader and FileWriter send as the last argument, without
+     * parsing the arguments.
+     *
+     * @return  The index of the comma before the operation ID, or -1 if there is none
+     */
+    private static int operationIdStart(String rawArgs) {
+        int comma = rawArgs.lastIndexOf(',');
+        if (comma < 0) {
+            return -1;
+        }
+        String tail = rawArgs.substring(comma + 1).trim();
+        return tail.startsWith("\"op:") && tail.endsWith("\"]") ? comma : -1;
+    }
+
+    private static String operationIdForArgs(JSONArray args) {
+        Object last = args.opt(args.length() - 1);
+        return last instanceof String && ((String) last).startsWith("op:") ? (String) last : null;
+    }
+
+    /**
+     * Aborts a read or write started by FileReader or FileWriter.
+     */
+    private void abort(String operationId) {
+        String target = singleFlight == null ? operationId : singleFlight.abandon(operationId);
+        if (target != null) {
+            operations.abort(target);
+        }
+    }
+
+    /**
+     * Whether identical requests for an action can share a single result, because the action
+     * doesn't change anything.
+     */
+    private static boolean isCoalescable(String action) {
+        switch (action) {
+            case "resolveLocalFileSystemURI":
+            case "getFileMetadata":
+            case "readEntries":
+            case "readAsText":
+            case "readAsDataURL":
+            case "readAsArrayBuffer":
+            case "readAsBinaryString":
+            case "testFileExists":
+            case "testDirectoryExists":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private boolean dispatch(String action, final String rawArgs, final CallbackContext callbackContext) {
 
         if (action.equals("testSaveLocationExists")) {
-            threadhelper(new FileOp() {
+            threadhelper(action, new FileOp() {
                 public void run(JSONArray args) {
 
                     boolean b = DirectoryManager.testSaveLocationExists();
@@ -278,7 +522,7 @@ public class FileUtils extends CordovaPlugin {
                 }
             }, rawArgs, callbackContext);
         } else if (action.equals("getFreeDiskSpace")) {
-            threadhelper(new FileOp() {
+            threadhelper(action, new FileOp() {
                 public void run(JSONArray args) {
                     // The getFreeDiskSpace plugin API is not documented, but some apps call it anyway via exec().
                     // For compatibility it always returns free space in the primary external storage, and
@@ -288,7 +532,7 @@ public class FileUtils extends CordovaPlugin {
                 }
             }, rawArgs, callbackContext);
         } else if (action.equals("testFileExists")) {
-            threadhelper(new FileOp() {
+            threadhelper(action, new FileOp() {
                 public void run(JSONArray args) throws JSONException {
                     String fname = args.getString(0);
                     boolean b = DirectoryManager.testFileExists(fname);
@@ -296,7 +540,7 @@ public class FileUtils extends CordovaPlugin {
                 }
             }, rawArgs, callbackContext);
         } else if (action.equals("testDirectoryExists")) {
-            threadhelper(new FileOp() {
+            threadhelper(action, new FileOp() {
                 public void run(JSONArray args) throws JSONException {
                     String fname = args.getString(0);
                     boolean b = DirectoryManager.testFileExists(fname);
@@ -304,7 +548,7 @@ public class FileUtils extends CordovaPlugin {
                 }
             }, rawArgs, callbackContext);
         } else if (action.equals("readAsText")) {
-            threadhelper(new FileOp() {
+            threadhelper(action, new FileOp() {
                 public void run(JSONArray args) throws JSONException, MalformedURLException {
                     String encoding = args.getString(1);
                     int start = args.getInt(2);
@@ -314,7 +558,7 @@ public class FileUtils extends CordovaPlugin {
                 }
             }, rawArgs, callbackContext);
         } else if (action.equals("readAsDataURL")) {
-            threadhelper(new FileOp() {
+            threadhelper(action, new FileOp() {
                 public void run(JSONArray args) throws JSONException, MalformedURLException {
                     int start = args.getInt(1);
                     int end = args.getInt(2);
@@ -323,7 +567,7 @@ public class FileUtils extends CordovaPlugin {
                 }
             }, rawArgs, callbackContext);
         } else if (action.equals("readAsArrayBuffer")) {
-            threadhelper(new FileOp() {
+            threadhelper(action, new FileOp() {
                 public void run(JSONArray args) throws JSONException, MalformedURLException {
                     int start = args.getInt(1);
                     int end = args.getInt(2);
@@ -332,7 +576,7 @@ public class FileUtils extends CordovaPlugin {
                 }
             }, rawArgs, callbackContext);
         } else if (action.equals("readAsBinaryString")) {
-            threadhelper(new FileOp() {
+            threadhelper(action, new FileOp() {
                 public void run(JSONArray args) throws JSONException, MalformedURLException {
                     int start = args.getInt(1);
                     int end = args.getInt(2);
@@ -341,7 +585,7 @@ public class FileUtils extends CordovaPlugin {
                 }
             }, rawArgs, callbackContext);
         } else if (action.equals("write")) {
-            threadhelper(new FileOp() {
+            threadhelper(action, new FileOp() {
                 public void run(JSONArray args) throws JSONException, FileNotFoundException, IOException, NoModificationAllowedException {
                     String fname = args.getString(0);
                     String nativeURL = resolveLocalFileSystemURI(fname).getString("nativeURL");
@@ -353,13 +597,14 @@ public class FileUtils extends CordovaPlugin {
                         getWritePermission(rawArgs, ACTION_WRITE, callbackContext);
                     } else {
                         long fileSize = write(fname, data, offset, isBinary);
+                        OperationTrace.phase("send");
                         callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK, fileSize));
                     }
 
                 }
             }, rawArgs, callbackContext);
         } else if (action.equals("truncate")) {
-            threadhelper(new FileOp() {
+            threadhelper(action, new FileOp() {
                 public void run(JSONArray args) throws JSONException, FileNotFoundException, IOException, NoModificationAllowedException {
                     String fname = args.getString(0);
                     int offset = args.getInt(1);
@@ -368,13 +613,13 @@ public class FileUtils extends CordovaPlugin {
                 }
             }, rawArgs, callbackContext);
         } else if (action.equals("requestAllFileSystems")) {
-            threadhelper(new FileOp() {
+            threadhelper(action, new FileOp() {
                 public void run(JSONArray args) throws IOException, JSONException {
                     callbackContext.success(requestAllFileSystems());
                 }
             }, rawArgs, callbackContext);
         } else if (action.equals("requestAllPaths")) {
-            cordova.getThreadPool().execute(
+            boolean queued = ioScheduler.execute(IoScheduler.Lane.INTERACTIVE,
                     new Runnable() {
                         public void run() {
                             try {
@@ -386,8 +631,12 @@ public class FileUtils extends CordovaPlugin {
                         }
                     }
             );
+            if (!queued) {
+                LOG.w(LOG_TAG, "Too many queued file operations, rejecting " + action);
+                callbackContext.error(FileUtils.INVALID_STATE_ERR);
+            }
         } else if (action.equals("requestFileSystem")) {
-            threadhelper(new FileOp() {
+            threadhelper(action, new FileOp() {
                 public void run(JSONArray args) throws JSONException {
                     int fstype = args.getInt(0);
                     long requiredSize = args.optLong(1);
@@ -395,7 +644,7 @@ public class FileUtils extends CordovaPlugin {
                 }
             }, rawArgs, callbackContext);
         } else if (action.equals("resolveLocalFileSystemURI")) {
-            threadhelper(new FileOp() {
+            threadhelper(action, new FileOp() {
                 public void run(JSONArray args) throws IOException, JSONException {
                     String fname = args.getString(0);
                     JSONObject obj = resolveLocalFileSystemURI(fname);
@@ -403,15 +652,22 @@ public class FileUtils extends CordovaPlugin {
                 }
             }, rawArgs, callbackContext);
         } else if (action.equals("getFileMetadata")) {
-            threadhelper(new FileOp() {
+            threadhelper(action, new FileOp() {
                 public void run(JSONArray args) throws FileNotFoundException, JSONException, MalformedURLException {
                     String fname = args.getString(0);
                     JSONObject obj = getFileMetadata(fname);
                     callbackContext.success(obj);
                 }
             }, rawArgs, callbackContext);
+        } else if (action.equals("getFileMetadataBatch")) {
+            threadhelper(action, new FileOp() {
+                public void run(JSONArray args) throws JSONException, MalformedURLException {
+                    JSONArray urls = args.getJSONArray(0);
+                    callbackContext.success(getFileMetadataBatch(urls));
+                }
+            }, rawArgs, callbackContext);
         } else if (action.equals("getParent")) {
-            threadhelper(new FileOp() {
+            threadhelper(action, new FileOp() {
                 public void run(JSONArray args) throws JSONException, IOException {
                     String fname = args.getString(0);
                     JSONObject obj = getParent(fname);
@@ -419,7 +675,7 @@ public class FileUtils extends CordovaPlugin {
                 }
             }, rawArgs, callbackContext);
         } else if (action.equals("getDirectory")) {
-            threadhelper(new FileOp() {
+            threadhelper(action, new FileOp() {
                 public void run(JSONArray args) throws FileExistsException, IOException, TypeMismatchException, EncodingException, JSONException {
                     String dirname = args.getString(0);
                     String path = args.getString(1);
@@ -437,7 +693,7 @@ public class FileUtils extends CordovaPlugin {
                 }
             }, rawArgs, callbackContext);
         } else if (action.equals("getFile")) {
-            threadhelper(new FileOp() {
+            threadhelper(action, new FileOp() {
                 public void run(JSONArray args) throws FileExistsException, IOException, TypeMismatchException, EncodingException, JSONException {
                     String dirname = args.getString(0);
                     String path = args.getString(1);
@@ -461,7 +717,7 @@ public class FileUtils extends CordovaPlugin {
                 }
             }, rawArgs, callbackContext);
         } else if (action.equals("remove")) {
-            threadhelper(new FileOp() {
+            threadhelper(action, new FileOp() {
                 public void run(JSONArray args) throws JSONException, NoModificationAllowedException, InvalidModificationException, MalformedURLException {
                     String fname = args.getString(0);
                     boolean success = remove(fname);
@@ -473,7 +729,7 @@ public class FileUtils extends CordovaPlugin {
                 }
             }, rawArgs, callbackContext);
         } else if (action.equals("removeRecursively")) {
-            threadhelper(new FileOp() {
+            threadhelper(action, new FileOp() {
                 public void run(JSONArray args) throws JSONException, FileExistsException, MalformedURLException, NoModificationAllowedException {
                     String fname = args.getString(0);
                     boolean success = removeRecursively(fname);
@@ -485,7 +741,7 @@ public class FileUtils extends CordovaPlugin {
                 }
             }, rawArgs, callbackContext);
         } else if (action.equals("moveTo")) {
-            threadhelper(new FileOp() {
+            threadhelper(action, new FileOp() {
                 public void run(JSONArray args) throws JSONException, NoModificationAllowedException, IOException, InvalidModificationException, EncodingException, FileExistsException {
                     String fname = args.getString(0);
                     String newParent = args.getString(1);
@@ -495,7 +751,7 @@ public class FileUtils extends CordovaPlugin {
                 }
             }, rawArgs, callbackContext);
         } else if (action.equals("copyTo")) {
-            threadhelper(new FileOp() {
+            threadhelper(action, new FileOp() {
                 public void run(JSONArray args) throws JSONException, NoModificationAllowedException, IOException, InvalidModificationException, EncodingException, FileExistsException {
                     String fname = args.getString(0);
                     String newParent = args.getString(1);
@@ -505,7 +761,7 @@ public class FileUtils extends CordovaPlugin {
                 }
             }, rawArgs, callbackContext);
         } else if (action.equals("readEntries")) {
-            threadhelper(new FileOp() {
+            threadhelper(action, new FileOp() {
                 public void run(JSONArray args) throws FileNotFoundException, JSONException, MalformedURLException, IOException {
                     String directory = args.getString(0);
                     String nativeURL = resolveLocalFileSystemURI(directory).getString("nativeURL");
@@ -517,23 +773,115 @@ public class FileUtils extends CordovaPlugin {
                     }
                 }
             }, rawArgs, callbackContext);
+        } else if (action.equals("registerDocumentTree")) {
+            threadhelper(action, new FileOp() {
+                public void run(JSONArray args) throws JSONException, IOException, EncodingException, InvalidModificationException {
+                    String fsName = args.getString(0);
+                    String treeUri = args.getString(1);
+                    callbackContext.success(registerDocumentTree(fsName, Uri.parse(treeUri)));
+                }
+            }, rawArgs, callbackContext);
+        } else if (action.equals("mountArchive")) {
+            threadhelper(action, new FileOp() {
+                public void run(JSONArray args) throws JSONException, IOException, EncodingException, InvalidModificationException {
+                    String fsName = args.getString(0);
+                    String archiveURL = args.getString(1);
+                    callbackContext.success(mountArchive(fsName, archiveURL));
+                }
+            }, rawArgs, callbackContext);
+        } else if (action.equals("unmountArchive")) {
+            threadhelper(action, new FileOp() {
+                public void run(JSONArray args) throws JSONException, IOException {
+                    unmountArchive(args.getString(0));
+                    callbackContext.success();
+                }
+            }, rawArgs, callbackContext);
+        } else if (action.equals("getResourceCacheStats")) {
+            threadhelper(action, new FileOp() {
+                public void run(JSONArray args) throws JSONException {
+                    callbackContext.success(getResourceCacheStats());
+                }
+            }, rawArgs, callbackContext);
+        } else if (action.equals("getSchedulerStats")) {
+            threadhelper(action, new FileOp() {
+                public void run(JSONArray args) throws JSONException {
+                    JSONObject stats = ioScheduler.getStats();
+                    if (singleFlight != null) {
+                        stats.put("coalescing", singleFlight.getStats());
+                    }
+                    stats.put("buffers", BufferPool.getShared().getStats());
+                    callbackContext.success(stats);
+                }
+            }, rawArgs, callbackContext);
+        } else if (action.equals("getStats")) {
+            threadhelper(action, new FileOp() {
+                public void run(JSONArray args) throws JSONException {
+                    callbackContext.success(stats.toJSON());
+                }
+            }, rawArgs, callbackContext);
+        } else if (action.equals("resetStats")) {
+            threadhelper(action, new FileOp() {
+                public void run(JSONArray args) {
+                    stats.reset();
+                    callbackContext.success();
+                }
+            }, rawArgs, callbackContext);
+        } else if (action.equals("batch")) {
+            threadhelper(action, new FileOp() {
+                public void run(JSONArray args) throws JSONException {
+                    callbackContext.success(runBatch(args.getJSONArray(0), args.optJSONObject(1), callbackContext));
+                }
+            }, rawArgs, callbackContext);
         } else if (action.equals("_getLocalFilesystemPath")) {
             // Internal method for testing: Get the on-disk location of a local filesystem url.
             // [Currently used for testing file-transfer]
-            threadhelper(new FileOp() {
+            threadhelper(action, new FileOp() {
                 public void run(JSONArray args) throws FileNotFoundException, JSONException, MalformedURLException {
                     String localURLstr = args.getString(0);
                     String fname = filesystemPathForURL(localURLstr);
                     callbackContext.success(fname);
                 }
             }, rawArgs, callbackContext);
+        } else if (action.equals("_simulateLowMemory")) {
+            // Internal method for testing: Limit reads as if memory were critically low, to the
+            // given number of bytes, or go back to normal if it is negative.
+            threadhelper(action, new FileOp() {
+                public void run(JSONArray args) throws JSONException {
+                    long readLimit = args.getLong(0);
+                    if (readLimit < 0) {
+                        lowMemoryUntil = 0;
+                        lowMemoryReadLimit = preferences.getInteger("androidfilelowmemoryreadlimit", DEFAULT_LOW_MEMORY_READ_LIMIT);
+                    } else {
+                        lowMemoryReadLimit = readLimit;
+                        lowMemoryUntil = SystemClock.elapsedRealtime() + LOW_MEMORY_READ_LIMIT_MILLIS;
+                    }
+                    callbackContext.success();
+                }
+            }, rawArgs, callbackContext);
         } else {
             return false;
         }
         return true;
     }
 
+    /**
+     * Fails a step of a batch that needs a permission. A batch can't wait for the user, and the
+     * step must not run once it is granted, after the batch has already returned.
+     *
+     * @return  Whether the request was a step of a batch
+     */
+    private static boolean rejectPermissionInBatch(CallbackContext callbackContext) {
+        if (callbackContext instanceof BatchStepContext) {
+            callbackContext.error(SECURITY_ERR);
+            return true;
+        }
+        return false;
+    }
+
     private void getReadPermission(String rawArgs, int action, CallbackContext callbackContext) {
+        if (rejectPermissionInBatch(callbackContext)) {
+            return;
+        }
         int requestCode = pendingRequests.createRequest(rawArgs, action, callbackContext);
         if (android.os.Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
             PermissionHelper.requestPermissions(this, requestCode,
@@ -544,6 +892,9 @@ public class FileUtils extends CordovaPlugin {
     }
 
     private void getWritePermission(String rawArgs, int action, CallbackContext callbackContext) {
+        if (rejectPermissionInBatch(callbackContext)) {
+            return;
+        }
         if (android.os.Build.VERSION.SDK_INT < Build.VERSION_CODES.TIRAMISU) {
             int requestCode = pendingRequests.createRequest(rawArgs, action, callbackContext);
             PermissionHelper.requestPermission(this, requestCode, Manifest.permission.WRITE_EXTERNAL_STORAGE);
@@ -577,27 +928,55 @@ public class FileUtils extends CordovaPlugin {
     }
 
     private boolean needPermission(String nativeURL, int permissionType) throws JSONException {
-        JSONObject j = requestAllPaths();
-        ArrayList<String> allowedStorageDirectories = new ArrayList<String>();
-        allowedStorageDirectories.add(j.getString("applicationDirectory"));
-        allowedStorageDirectories.add(j.getString("applicationStorageDirectory"));
-        if (j.has("externalApplicationStorageDirectory")) {
-            allowedStorageDirectories.add(j.getString("externalApplicationStorageDirectory"));
-        }
+        String previousPhase = OperationTrace.phase("permission");
+        try {
+            // Access to Storage Access Framework documents is governed by the provider's URI
+            // permission grants. Other content: URLs, such as MediaStore's, need the storage or
+            // media permissions like files do.
+            if (nativeURL.startsWith("content:")) {
+                Uri uri = Uri.parse(nativeURL);
+                if (DocumentsContract.isDocumentUri(webView.getContext(), uri) || DocumentsContract.isTreeUri(uri)) {
+                    return false;
+                }
+            } else if (!nativeURL.startsWith("file:") && hasNoOsPath(nativeURL)) {
+                // Filesystems such as the memory, pack and zip ones keep their data in memory
+                // or in app-private storage, so the OS has nothing to grant.
+                return false;
+            }
 
-        if (permissionType == READ && hasReadPermission()) {
-            return false;
-        } else if (permissionType == WRITE && hasWritePermission()) {
-            return false;
-        }
+            JSONObject j = requestAllPaths();
+            ArrayList<String> allowedStorageDirectories = new ArrayList<String>();
+            allowedStorageDirectories.add(j.getString("applicationDirectory"));
+            allowedStorageDirectories.add(j.getString("applicationStorageDirectory"));
+            if (j.has("externalApplicationStorageDirectory")) {
+                allowedStorageDirectories.add(j.getString("externalApplicationStorageDirectory"));
+            }
 
-        // Permission required if the native url lies outside the allowed storage directories
-        for (String directory : allowedStorageDirectories) {
-            if (nativeURL.startsWith(directory)) {
+            if (permissionType == READ && hasReadPermission()) {
+                return false;
+            } else if (permissionType == WRITE && hasWritePermission()) {
                 return false;
             }
+
+            // Permission required if the native url lies outside the allowed storage directories
+            for (String directory : allowedStorageDirectories) {
+                if (nativeURL.startsWith(directory)) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            OperationTrace.restorePhase(previousPhase);
         }
-        return true;
+    }
+
+    private boolean hasNoOsPath(String nativeURL) {
+        LocalFilesystemURL inputURL = LocalFilesystemURL.parse(nativeURL);
+        if (inputURL == null) {
+            return false;
+        }
+        Filesystem fs = filesystemForName(inputURL.fsName);
+        return fs != null && fs.filesystemPathForURL(inputURL) == null;
     }
 
 
@@ -664,13 +1043,29 @@ public class FileUtils extends CordovaPlugin {
     /* helper to execute functions async and handle the result codes
      *
      */
-    private void threadhelper(final FileOp f, final String rawArgs, final CallbackContext callbackContext) {
-        cordova.getThreadPool().execute(new Runnable() {
+    private void threadhelper(final String action, final FileOp f, final String rawArgs, final CallbackContext callbackContext) {
+        final boolean inline = Boolean.TRUE.equals(runInline.get());
+        final long queuedAt = System.nanoTime();
+        final OperationTrace trace = OperationTrace.queue(action);
+        Runnable task = new Runnable() {
             public void run() {
+                long startedAt = System.nanoTime();
+                if (trace != null) {
+                    trace.start();
+                }
+                String volume = null;
                 try {
                     JSONArray args = new JSONArray(rawArgs);
+                    Object url = args.opt(0);
+                    OperationTrace.describe(url instanceof String ? (String) url : null, null);
+                    operations.begin(operationIdForArgs(args));
+                    String target = volumeForArgs(args);
+                    if (target != null && ioScheduler.enterVolume(laneForAction(action), target)) {
+                        volume = target;
+                    }
                     f.run(args);
                 } catch (Exception e) {
+                    stats.recordError(action, e);
                     if (e instanceof EncodingException) {
                         callbackContext.error(FileUtils.ENCODING_ERR);
                     } else if (e instanceof FileNotFoundException) {
@@ -683,6 +1078,10 @@ public class FileUtils extends CordovaPlugin {
                         callbackContext.error(FileUtils.INVALID_MODIFICATION_ERR);
                     } else if (e instanceof MalformedURLException) {
                         callbackContext.error(FileUtils.ENCODING_ERR);
+                    } else if (e instanceof QuotaExceededException) {
+                        callbackContext.error(FileUtils.QUOTA_EXCEEDED_ERR);
+                    } else if (e instanceof OperationAbortedException) {
+                        callbackContext.error(FileUtils.ABORT_ERR);
                     } else if (e instanceof IOException) {
                         callbackContext.error(FileUtils.INVALID_MODIFICATION_ERR);
                     } else if (e instanceof TypeMismatchException) {
@@ -695,9 +1094,178 @@ public class FileUtils extends CordovaPlugin {
                         e.printStackTrace();
                         callbackContext.error(FileUtils.UNKNOWN_ERR);
                     }
+                } finally {
+                    operations.end();
+                    if (volume != null) {
+                        ioScheduler.exitVolume(volume);
+                    }
+                    stats.recordAction(action, inline ? -1 : startedAt - queuedAt, System.nanoTime() - startedAt);
+                    if (trace != null) {
+                        trace.finish();
+                    }
+                }
+            }
+        };
+        if (inline) {
+            // A step of a batch, which is already running on a worker thread.
+            task.run();
+            return;
+        }
+        boolean queued = ioScheduler.execute(laneForAction(action), task);
+        if (!queued) {
+            LOG.w(LOG_TAG, "Too many queued file operations, rejecting " + action);
+            if (trace != null) {
+                trace.cancel();
+            }
+            callbackContext.error(FileUtils.INVALID_STATE_ERR);
+        }
+    }
+
+    /**
+     * Picks the scheduler lane for an action, so that operations on whole trees don't delay
+     * lookups and reads.
+     */
+    private static IoScheduler.Lane laneForAction(String action) {
+        switch (action) {
+            case "readAsText":
+            case "readAsDataURL":
+            case "readAsArrayBuffer":
+            case "readAsBinaryString":
+            case "write":
+            case "truncate":
+            case "batch":
+                return IoScheduler.Lane.STREAMING;
+            case "removeRecursively":
+            case "moveTo":
+            case "copyTo":
+            case "mountArchive":
+                return IoScheduler.Lane.BULK;
+            default:
+                return IoScheduler.Lane.INTERACTIVE;
+        }
+    }
+
+    /**
+     * Returns the storage volume that an action operates on, taken from the filesystem URL it
+     * is given first, or null if it isn't given one. Filesystems that aren't backed by a native
+     * directory count as volumes of their own.
+     */
+    private String volumeForArgs(JSONArray args) {
+        Object first = args.opt(0);
+        if (!(first instanceof String)) {
+            return null;
+        }
+        LocalFilesystemURL inputURL;
+        try {
+            inputURL = LocalFilesystemURL.parse((String) first);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        Filesystem fs = filesystemForURL(inputURL);
+        if (fs == null) {
+            return null;
+        }
+        if (!(fs instanceof LocalFilesystem)) {
+            return fs.name;
+        }
+        // The emulated shared storage lives on the same partition as the app's private data.
+        String[] components = fs.rootUri.getPath().split("/+");
+        if (components.length > 2 && "storage".equals(components[1]) && !"emulated".equals(components[2])) {
+            return "/storage/" + components[2];
+        }
+        return "/data";
+    }
+
+    /**
+     * Runs a list of actions one after the other on the current thread, as a single request.
+     *
+     * Each step is an object with the name of an "action" and its "args". An argument may refer to
+     * the result of an earlier step with {"$ref": index}, or to one of its fields with
+     * {"$ref": index, "field": name}, e.g. the nativeURL of a directory created by the first step.
+     *
+     * @param steps     The steps to run
+     * @param options   {"continueOnError": true} to run the remaining steps after one fails
+     * @return          The result of each step that was run, see {@link BatchStepContext#toJSON()}
+     */
+    private JSONArray runBatch(JSONArray steps, JSONObject options, CallbackContext callbackContext) throws JSONException {
+        boolean continueOnError = options != null && options.optBoolean("continueOnError");
+        JSONArray results = new JSONArray();
+        runInline.set(Boolean.TRUE);
+        try {
+            for (int i = 0; i < steps.length(); i++) {
+                BatchStepContext stepContext = new BatchStepContext(callbackContext.getCallbackId(), webView);
+                try {
+                    JSONObject step = steps.getJSONObject(i);
+                    String stepAction = step.getString("action");
+                    JSONArray stepArgs = resolveBatchReferences(step.optJSONArray("args"), results);
+                    if (singleFlight != null && !isCoalescable(stepAction)) {
+                        // As in execute(), reads that are already running mustn't be shared past a change.
+                        singleFlight.close();
+                    }
+                    // Batches don't nest, and abort only makes sense outside of them.
+                    if ("batch".equals(stepAction) || !dispatch(stepAction, stepArgs.toString(), stepContext)) {
+                        stepContext.error(FileUtils.SYNTAX_ERR);
+                    }
+                } catch (JSONException e) {
+                    stepContext.error(FileUtils.SYNTAX_ERR);
+                }
+                JSONObject result = stepContext.toJSON();
+                results.put(result);
+                if (!result.getBoolean("ok") && !continueOnError) {
+                    break;
+                }
+            }
+        } finally {
+            runInline.remove();
+        }
+        return results;
+    }
+
+    private static JSONArray resolveBatchReferences(JSONArray args, JSONArray results) throws JSONException {
+        JSONArray resolved = new JSONArray();
+        if (args == null) {
+            return resolved;
+        }
+        for (int i = 0; i < args.length(); i++) {
+            Object arg = args.get(i);
+            if (arg instanceof JSONObject && ((JSONObject) arg).has("$ref")) {
+                JSONObject ref = (JSONObject) arg;
+                JSONObject referenced = results.getJSONObject(ref.getInt("$ref"));
+                if (!referenced.getBoolean("ok")) {
+                    throw new JSONException("Step " + ref.getInt("$ref") + " failed");
+                }
+                arg = referenced.get("result");
+                if (ref.has("field")) {
+                    if (!(arg instanceof JSONObject)) {
+                        throw new JSONException("Step " + ref.getInt("$ref") + " has no fields");
+                    }
+                    arg = ((JSONObject) arg).get(ref.getString("field"));
                 }
             }
-        });
+            resolved.put(arg);
+        }
+        return resolved;
+    }
+
+    /**
+     * Returns hit and size statistics for the path handler's resource cache.
+     *
+     * @return a JSONObject of statistics, or an empty object if the cache is disabled
+     */
+    public JSONObject getResourceCacheStats() throws JSONException {
+        return resourceCache == null ? new JSONObject() : resourceCache.getStats();
+    }
+
+    /**
+     * Drops any cached path handler resources at or below the given URL.
+     */
+    private void invalidateResourceCache(Filesystem fs, LocalFilesystemURL inputURL) {
+        if (resourceCache != null && fs != null && inputURL != null) {
+            String path = fs.filesystemPathForURL(inputURL);
+            if (path != null) {
+                resourceCache.invalidate(new File(path).getAbsolutePath());
+            }
+        }
     }
 
     /**
@@ -711,39 +1279,44 @@ public class FileUtils extends CordovaPlugin {
      * @throws JSONException
      */
     private JSONObject resolveLocalFileSystemURI(String uriString) throws IOException, JSONException {
-        if (uriString == null) {
-            throw new MalformedURLException("Unrecognized filesystem URL");
-        }
-        Uri uri = Uri.parse(uriString);
-        boolean isNativeUri = false;
-
-        LocalFilesystemURL inputURL = LocalFilesystemURL.parse(uri);
-        if (inputURL == null) {
-            /* Check for file://, content:// urls */
-            inputURL = resolveNativeUri(uri);
-            isNativeUri = true;
-        }
-
+        String previousPhase = OperationTrace.phase("resolve");
         try {
-            Filesystem fs = this.filesystemForURL(inputURL);
-            if (fs == null) {
-                throw new MalformedURLException("No installed handlers for this URL");
+            if (uriString == null) {
+                throw new MalformedURLException("Unrecognized filesystem URL");
+            }
+            Uri uri = Uri.parse(uriString);
+            boolean isNativeUri = false;
+
+            LocalFilesystemURL inputURL = LocalFilesystemURL.parse(uri);
+            if (inputURL == null) {
+                /* Check for file://, content:// urls */
+                inputURL = resolveNativeUri(uri);
+                isNativeUri = true;
             }
-            if (fs.exists(inputURL)) {
-                if (!isNativeUri) {
-                    // If not already resolved as native URI, resolve to a native URI and back to
-                    // fix the terminating slash based on whether the entry is a directory or file.
-                    inputURL = fs.toLocalUri(fs.toNativeUri(inputURL));
+
+            try {
+                Filesystem fs = this.filesystemForURL(inputURL);
+                if (fs == null) {
+                    throw new MalformedURLException("No installed handlers for this URL");
                 }
+                if (fs.exists(inputURL)) {
+                    if (!isNativeUri) {
+                        // If not already resolved as native URI, resolve to a native URI and back to
+                        // fix the terminating slash based on whether the entry is a directory or file.
+                        inputURL = fs.toLocalUri(fs.toNativeUri(inputURL));
+                    }
 
-                return fs.getEntryForLocalURL(inputURL);
+                    return fs.getEntryForLocalURL(inputURL);
+                }
+            } catch (IllegalArgumentException e) {
+                MalformedURLException mue = new MalformedURLException("Unrecognized filesystem URL");
+                mue.initCause(e);
+                throw mue;
             }
-        } catch (IllegalArgumentException e) {
-            MalformedURLException mue = new MalformedURLException("Unrecognized filesystem URL");
-            mue.initCause(e);
-            throw mue;
+            throw new FileNotFoundException();
+        } finally {
+            OperationTrace.restorePhase(previousPhase);
         }
-        throw new FileNotFoundException();
     }
 
     /**
@@ -800,7 +1373,12 @@ public class FileUtils extends CordovaPlugin {
             throw new EncodingException("Bad file name");
         }
 
-        return destFs.copyFileToURL(destURL, newName, srcFs, srcURL, move);
+        JSONObject entry = destFs.copyFileToURL(destURL, newName, srcFs, srcURL, move);
+        if (move) {
+            invalidateResourceCache(srcFs, srcURL);
+        }
+        invalidateResourceCache(destFs, destFs.localUrlforFullPath(entry.getString("fullPath")));
+        return entry;
     }
 
     /**
@@ -826,7 +1404,9 @@ public class FileUtils extends CordovaPlugin {
             if (fs == null) {
                 throw new MalformedURLException("No installed handlers for this URL");
             }
-            return fs.recursiveRemoveFileAtLocalURL(inputURL);
+            boolean removed = fs.recursiveRemoveFileAtLocalURL(inputURL);
+            invalidateResourceCache(fs, inputURL);
+            return removed;
 
         } catch (IllegalArgumentException e) {
             MalformedURLException mue = new MalformedURLException("Unrecognized filesystem URL");
@@ -858,7 +1438,9 @@ public class FileUtils extends CordovaPlugin {
             if (fs == null) {
                 throw new MalformedURLException("No installed handlers for this URL");
             }
-            return fs.removeFileAtLocalURL(inputURL);
+            boolean removed = fs.removeFileAtLocalURL(inputURL);
+            invalidateResourceCache(fs, inputURL);
+            return removed;
 
         } catch (IllegalArgumentException e) {
             MalformedURLException mue = new MalformedURLException("Unrecognized filesystem URL");
@@ -940,6 +1522,146 @@ public class FileUtils extends CordovaPlugin {
         }
     }
 
+    private static void checkFilesystemName(String fsName) throws EncodingException {
+        if (fsName.isEmpty() || fsName.contains("/") || fsName.contains("__")) {
+            throw new EncodingException("Invalid filesystem name: " + fsName);
+        }
+    }
+
+    /**
+     * Mounts a zip archive stored in a local filesystem as a read-only filesystem. Mounting the
+     * same name and archive again is a no-op.
+     *
+     * @param fsName the name of the new filesystem
+     * @param archiveURL a filesystem or file: URL of the archive
+     * @return the root entry of the filesystem
+     */
+    private JSONObject mountArchive(String fsName, String archiveURL) throws IOException, EncodingException, InvalidModificationException {
+        checkFilesystemName(fsName);
+        Uri uri = Uri.parse(archiveURL);
+        LocalFilesystemURL inputURL = LocalFilesystemURL.parse(uri);
+        if (inputURL == null) {
+            inputURL = resolveNativeUri(uri);
+        }
+        Filesystem fs = filesystemForURL(inputURL);
+        String path = fs == null ? null : fs.filesystemPathForURL(inputURL);
+        if (path == null) {
+            throw new MalformedURLException("Archives must be in a local filesystem: " + archiveURL);
+        }
+        File archiveFile = new File(path);
+
+        synchronized (filesystems) {
+            Filesystem existing = filesystemForName(fsName);
+            if (existing != null) {
+                if (existing instanceof ZipFilesystem && ((ZipFilesystem) existing).getArchiveFile().equals(archiveFile)) {
+                    return existing.getRootEntry();
+                }
+                throw new InvalidModificationException("A filesystem named " + fsName + " is already registered");
+            }
+
+            ZipFilesystem zipFs = new ZipFilesystem(fsName, archiveFile, webView.getResourceApi(), preferences);
+            registerFilesystem(zipFs);
+            return zipFs.getRootEntry();
+        }
+    }
+
+    /**
+     * Unmounts an archive mounted with {@link #mountArchive(String, String)}.
+     */
+    private void unmountArchive(String fsName) throws IOException {
+        synchronized (filesystems) {
+            Filesystem fs = filesystemForName(fsName);
+            if (!(fs instanceof ZipFilesystem)) {
+                throw new FileNotFoundException("No archive is mounted as " + fsName);
+            }
+            filesystems.remove(fs);
+            pathHandlerRoutes.remove(LocalFilesystemURL.fsNameToCdvKeyword(fsName));
+            ((ZipFilesystem) fs).close();
+        }
+    }
+
+    /**
+     * Registers a filesystem over a Storage Access Framework document tree that the app holds a
+     * grant for, so that it can be used through filesystem URLs like any other filesystem.
+     * Registering the same name and tree again is a no-op.
+     *
+     * @param fsName the name of the new filesystem
+     * @param treeUri the tree URL returned by ACTION_OPEN_DOCUMENT_TREE
+     * @return the root entry of the filesystem
+     */
+    private JSONObject registerDocumentTree(String fsName, Uri treeUri) throws IOException, EncodingException, InvalidModificationException {
+        checkFilesystemName(fsName);
+        if (!DocumentsContract.isTreeUri(treeUri)) {
+            throw new MalformedURLException("Not a document tree URL: " + treeUri);
+        }
+
+        synchronized (filesystems) {
+            Filesystem existing = filesystemForName(fsName);
+            if (existing != null) {
+                if (existing instanceof DocumentTreeFilesystem && ((DocumentTreeFilesystem) existing).getTreeUri().equals(treeUri)) {
+                    return existing.getRootEntry();
+                }
+                throw new InvalidModificationException("A filesystem named " + fsName + " is already registered");
+            }
+
+            DocumentTreeFilesystem fs = new DocumentTreeFilesystem(fsName, webView.getContext(), webView.getResourceApi(), treeUri, preferences);
+            // Fails with a SecurityException if the app doesn't hold a grant for the tree.
+            fs.getFileMetadataForLocalURL(LocalFilesystemURL.parse(fs.createLocalUriBuilder().appendEncodedPath("").build()));
+            registerFilesystem(fs);
+            return fs.getRootEntry();
+        }
+    }
+
+    /**
+     * Returns the metadata for several entries in one call. Lookups for content: URLs are batched
+     * where the provider allows it.
+     *
+     * @param urls a JSONArray of filesystem or native (file:, content:) URLs
+     * @return a JSONArray holding, in order, the metadata of each entry or null if it was not found
+     */
+    private JSONArray getFileMetadataBatch(JSONArray urls) throws JSONException, MalformedURLException {
+        try {
+            LocalFilesystemURL[] inputURLs = new LocalFilesystemURL[urls.length()];
+            ArrayList<LocalFilesystemURL> contentURLs = new ArrayList<LocalFilesystemURL>();
+            ContentFilesystem contentFs = null;
+            for (int i = 0; i < inputURLs.length; i++) {
+                Uri uri = Uri.parse(urls.getString(i));
+                LocalFilesystemURL inputURL = LocalFilesystemURL.parse(uri);
+                if (inputURL == null) {
+                    inputURL = resolveNativeUri(uri);
+                }
+                inputURLs[i] = inputURL;
+                Filesystem fs = this.filesystemForURL(inputURL);
+                if (fs instanceof ContentFilesystem) {
+                    contentFs = (ContentFilesystem) fs;
+                    contentURLs.add(inputURL);
+                }
+            }
+            if (contentFs != null) {
+                contentFs.prefetchFileMetadata(contentURLs);
+            }
+
+            JSONArray ret = new JSONArray();
+            for (LocalFilesystemURL inputURL : inputURLs) {
+                Filesystem fs = this.filesystemForURL(inputURL);
+                JSONObject metadata = null;
+                if (fs != null) {
+                    try {
+                        metadata = fs.getFileMetadataForLocalURL(inputURL);
+                    } catch (FileNotFoundException e) {
+                        // Reported as null
+                    }
+                }
+                ret.put(metadata == null ? JSONObject.NULL : metadata);
+            }
+            return ret;
+        } catch (IllegalArgumentException e) {
+            MalformedURLException mue = new MalformedURLException("Unrecognized filesystem URL");
+            mue.initCause(e);
+            throw mue;
+        }
+    }
+
     /**
      * Requests a filesystem in which to store application data.
      *
@@ -1051,6 +1773,51 @@ public class FileUtils extends CordovaPlugin {
         return null;
     }
 
+    /**
+     * Reads a stream to its end. When the length is known, the data is read straight into an
+     * array of that size, which can be passed on without copying it again.
+     *
+     * @param length    The number of bytes the stream will return, or -1 if unknown
+     * @param limit     The most bytes to read into memory, or -1 for no limit
+     */
+    private byte[] readFully(InputStream inputStream, long length, long limit) throws IOException {
+        if (length >= 0 && length < Integer.MAX_VALUE) {
+            byte[] data = new byte[(int) length];
+            int offset = 0;
+            while (offset < data.length) {
+                operations.throwIfAborted();
+                int bytesRead = inputStream.read(data, offset, Math.min(data.length - offset, BufferPool.BUFFER_SIZE));
+                if (bytesRead < 0) {
+                    // The file was truncated while it was being read.
+                    return Arrays.copyOf(data, offset);
+                }
+                offset += bytesRead;
+            }
+            return data;
+        }
+
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        BufferPool pool = BufferPool.getShared();
+        byte[] buffer = pool.acquire();
+        try {
+            for (; ; ) {
+                operations.throwIfAborted();
+                int bytesRead = inputStream.read(buffer, 0, buffer.length);
+
+                if (bytesRead <= 0) {
+                    break;
+                }
+                os.write(buffer, 0, bytesRead);
+                if (limit >= 0 && os.size() > limit) {
+                    throw new QuotaExceededException("Reads are limited to " + limit + " bytes while memory is low");
+                }
+            }
+        } finally {
+            pool.release(buffer);
+        }
+        return os.toByteArray();
+    }
+
     /**
      * Read the contents of a file.
      * This is done in a background thread; the result is sent to the callback.
@@ -1065,46 +1832,57 @@ public class FileUtils extends CordovaPlugin {
     public void readFileAs(final String srcURLstr, final int start, final int end, final CallbackContext callbackContext, final String encoding, final int resultType) throws MalformedURLException {
         try {
             LocalFilesystemURL inputURL = LocalFilesystemURL.parse(srcURLstr);
-            Filesystem fs = this.filesystemForURL(inputURL);
+            final Filesystem fs = this.filesystemForURL(inputURL);
             if (fs == null) {
                 throw new MalformedURLException("No installed handlers for this URL");
             }
 
+            final long readLimit = SystemClock.elapsedRealtime() < lowMemoryUntil ? lowMemoryReadLimit : -1;
+            OperationTrace.phase("open");
             fs.readFileAtURL(inputURL, start, end, new Filesystem.ReadFileCallback() {
                 public void handleData(InputStream inputStream, String contentType) {
-                    try {
-                        ByteArrayOutputStream os = new ByteArrayOutputStream();
-                        final int BUFFER_SIZE = 8192;
-                        byte[] buffer = new byte[BUFFER_SIZE];
-
-                        for (; ; ) {
-                            int bytesRead = inputStream.read(buffer, 0, BUFFER_SIZE);
+                    handleData(inputStream, contentType, -1);
+                }
 
-                            if (bytesRead <= 0) {
-                                break;
-                            }
-                            os.write(buffer, 0, bytesRead);
+                @Override
+                public void handleData(InputStream inputStream, String contentType, long length) {
+                    try {
+                        if (readLimit >= 0 && length > readLimit) {
+                            // FileReader retries in smaller chunks.
+                            throw new QuotaExceededException("Reads are limited to " + readLimit + " bytes while memory is low");
                         }
+                        OperationTrace.phase("read");
+                        byte[] data = readFully(inputStream, length, readLimit);
+                        stats.recordRead(fs.name, data.length);
 
+                        OperationTrace.phase("encode");
                         PluginResult result;
                         switch (resultType) {
                             case PluginResult.MESSAGE_TYPE_STRING:
-                                result = new PluginResult(PluginResult.Status.OK, os.toString(encoding));
+                                result = new PluginResult(PluginResult.Status.OK, new String(data, encoding));
                                 break;
                             case PluginResult.MESSAGE_TYPE_ARRAYBUFFER:
-                                result = new PluginResult(PluginResult.Status.OK, os.toByteArray());
+                                result = new PluginResult(PluginResult.Status.OK, data);
                                 break;
                             case PluginResult.MESSAGE_TYPE_BINARYSTRING:
-                                result = new PluginResult(PluginResult.Status.OK, os.toByteArray(), true);
+                                result = new PluginResult(PluginResult.Status.OK, data, true);
                                 break;
                             default: // Base64.
-                                byte[] base64 = Base64.encode(os.toByteArray(), Base64.NO_WRAP);
+                                byte[] base64 = Base64.encode(data, Base64.NO_WRAP);
                                 String s = "data:" + contentType + ";base64," + new String(base64, "US-ASCII");
                                 result = new PluginResult(PluginResult.Status.OK, s);
                         }
 
+                        OperationTrace.phase("send");
                         callbackContext.sendPluginResult(result);
+                    } catch (OperationAbortedException e) {
+                        stats.recordError(null, e);
+                        callbackContext.error(ABORT_ERR);
+                    } catch (QuotaExceededException e) {
+                        stats.recordError(null, e);
+                        callbackContext.error(QUOTA_EXCEEDED_ERR);
                     } catch (IOException e) {
+                        stats.recordError(null, e);
                         LOG.d(LOG_TAG, e.getLocalizedMessage());
                         callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.IO_EXCEPTION, NOT_READABLE_ERR));
                     }
@@ -1141,7 +1919,12 @@ public class FileUtils extends CordovaPlugin {
                 throw new MalformedURLException("No installed handlers for this URL");
             }
 
-            return fs.writeToFileAtURL(inputURL, data, offset, isBinary);
+            operations.throwIfAborted();
+            OperationTrace.phase("write");
+            long written = fs.writeToFileAtURL(inputURL, data, offset, isBinary);
+            stats.recordWritten(fs.name, written);
+            invalidateResourceCache(fs, inputURL);
+            return written;
         } catch (IllegalArgumentException e) {
             MalformedURLException mue = new MalformedURLException("Unrecognized filesystem URL");
             mue.initCause(e);
@@ -1161,7 +1944,10 @@ public class FileUtils extends CordovaPlugin {
                 throw new MalformedURLException("No installed handlers for this URL");
             }
 
-            return fs.truncateFileAtURL(inputURL, size);
+            operations.throwIfAborted();
+            long newSize = fs.truncateFileAtURL(inputURL, size);
+            invalidateResourceCache(fs, inputURL);
+            return newSize;
         } catch (IllegalArgumentException e) {
             MalformedURLException mue = new MalformedURLException("Unrecognized filesystem URL");
             mue.initCause(e);
@@ -1181,13 +1967,17 @@ public class FileUtils extends CordovaPlugin {
         if (req != null) {
             for (int r : grantResults) {
                 if (r == PackageManager.PERMISSION_DENIED) {
+                    if (singleFlight != null) {
+                        // Identical requests made while the dialog was open must not join this one.
+                        singleFlight.close();
+                    }
                     req.getCallbackContext().sendPluginResult(new PluginResult(PluginResult.Status.ERROR, SECURITY_ERR));
                     return;
                 }
             }
             switch (req.getAction()) {
                 case ACTION_GET_FILE:
-                    threadhelper(new FileOp() {
+                    replayRequest("getFile", new FileOp() {
                         public void run(JSONArray args) throws FileExistsException, IOException, TypeMismatchException, EncodingException, JSONException {
                             String dirname = args.getString(0);
 
@@ -1195,10 +1985,10 @@ public class FileUtils extends CordovaPlugin {
                             JSONObject obj = getFile(dirname, path, args.optJSONObject(2), false);
                             req.getCallbackContext().success(obj);
                         }
-                    }, req.getRawArgs(), req.getCallbackContext());
+                    }, req);
                     break;
                 case ACTION_GET_DIRECTORY:
-                    threadhelper(new FileOp() {
+                    replayRequest("getDirectory", new FileOp() {
                         public void run(JSONArray args) throws FileExistsException, IOException, TypeMismatchException, EncodingException, JSONException {
                             String dirname = args.getString(0);
 
@@ -1206,10 +1996,10 @@ public class FileUtils extends CordovaPlugin {
                             JSONObject obj = getFile(dirname, path, args.optJSONObject(2), true);
                             req.getCallbackContext().success(obj);
                         }
-                    }, req.getRawArgs(), req.getCallbackContext());
+                    }, req);
                     break;
                 case ACTION_WRITE:
-                    threadhelper(new FileOp() {
+                    replayRequest("write", new FileOp() {
                         public void run(JSONArray args) throws JSONException, FileNotFoundException, IOException, NoModificationAllowedException {
                             String fname = args.getString(0);
                             String data = args.getString(1);
@@ -1218,16 +2008,16 @@ public class FileUtils extends CordovaPlugin {
                             long fileSize = write(fname, data, offset, isBinary);
                             req.getCallbackContext().sendPluginResult(new PluginResult(PluginResult.Status.OK, fileSize));
                         }
-                    }, req.getRawArgs(), req.getCallbackContext());
+                    }, req);
                     break;
                 case ACTION_READ_ENTRIES:
-                    threadhelper(new FileOp() {
+                    replayRequest("readEntries", new FileOp() {
                         public void run(JSONArray args) throws FileNotFoundException, JSONException, MalformedURLException {
                             String fname = args.getString(0);
                             JSONArray entries = readEntries(fname);
                             req.getCallbackContext().success(entries);
                         }
-                    }, req.getRawArgs(), req.getCallbackContext());
+                    }, req);
                     break;
             }
         } else {
@@ -1235,104 +2025,233 @@ public class FileUtils extends CordovaPlugin {
         }
     }
 
-    private String getMimeType(Uri uri) {
-        String fileExtensionFromUrl = MimeTypeMap.getFileExtensionFromUrl(uri.toString()).toLowerCase();
+    /**
+     * Runs a request that was waiting for a permission. Reads made while the dialog was open
+     * may have started flights that the request makes stale, so they are closed before it runs
+     * and again once it has, and no later request shares a result from before it.
+     */
+    private void replayRequest(String action, final FileOp f, PendingRequests.Request req) {
+        if (singleFlight != null) {
+            singleFlight.close();
+        }
+        threadhelper(action, new FileOp() {
+            public void run(JSONArray args) throws Exception {
+                try {
+                    f.run(args);
+                } finally {
+                    if (singleFlight != null) {
+                        singleFlight.close();
+                    }
+                }
+            }
+        }, req.getRawArgs(), req.getCallbackContext());
+    }
+
+    private String getMimeType(String path) {
+        String fileExtensionFromUrl = MimeTypeMap.getFileExtensionFromUrl(path).toLowerCase();
         return MimeTypeMap.getSingleton().getMimeTypeFromExtension(fileExtensionFromUrl);
     }
 
-    public CordovaPluginPathHandler getPathHandler() {
-        final CordovaResourceApi resourceApi = webView.getResourceApi();
+    /**
+     * Builds the response for a cdvfile resource served by the path handler.
+     *
+     * The path handler only receives the request path, so Range headers cannot be inspected here.
+     * The WebView satisfies byte-range requests against intercepted responses itself, by skipping
+     * into the returned stream; advertising the length and range support lets media elements seek
+     * without re-streaming the whole resource.
+     *
+     * When both the length and the modification time are known, ETag and Last-Modified validators
+     * are added, along with the Cache-Control value configured by the AndroidFileCacheControl
+     * preference (if any).
+     *
+     * A non-null contentEncoding means the stream is a precompressed variant of the resource; the
+     * length is then the encoded length, and byte ranges are not advertised.
+     */
+    private WebResourceResponse createPathHandlerResponse(Filesystem fs, String mimeType, long length, long lastModified, String contentEncoding, InputStream io) {
+        Map<String, String> headers = new HashMap<String, String>();
+        if (contentEncoding == null) {
+            headers.put("Accept-Ranges", "bytes");
+        } else {
+            headers.put("Content-Encoding", contentEncoding);
+        }
+        if (length >= 0) {
+            headers.put("Content-Length", String.valueOf(length));
+            if (lastModified > 0) {
+                headers.put("ETag", "W/\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"");
+                headers.put("Last-Modified", formatHttpDate(lastModified));
+            }
+        }
+        if (pathHandlerCacheControl != null) {
+            headers.put("Cache-Control", pathHandlerCacheControl);
+        }
+        return new WebResourceResponse(mimeType, null, 200, "OK", headers, stats.countReads(fs.name, io));
+    }
 
-        WebViewAssetLoader.PathHandler pathHandler = path -> {
-            String targetFileSystem = null;
-
-            if (path.startsWith(LocalFilesystemURL.fsNameToCdvKeyword("persistent"))) {
-                targetFileSystem = "persistent";
-            } else if (path.startsWith(LocalFilesystemURL.fsNameToCdvKeyword("temporary"))) {
-                targetFileSystem = "temporary";
-            } else if (path.startsWith(LocalFilesystemURL.fsNameToCdvKeyword("files"))) {
-                targetFileSystem = "files";
-            } else if (path.startsWith(LocalFilesystemURL.fsNameToCdvKeyword("documents"))) {
-                targetFileSystem = "documents";
-            } else if (path.startsWith(LocalFilesystemURL.fsNameToCdvKeyword("cache"))) {
-                targetFileSystem = "cache";
-            } else if (path.startsWith(LocalFilesystemURL.fsNameToCdvKeyword("root"))) {
-                targetFileSystem = "root";
-            } else if (path.startsWith(LocalFilesystemURL.fsNameToCdvKeyword("files-external"))) {
-                targetFileSystem = "files-external";
-            } else if (path.startsWith(LocalFilesystemURL.fsNameToCdvKeyword("sdcard"))) {
-                targetFileSystem = "sdcard";
-            } else if (path.startsWith(LocalFilesystemURL.fsNameToCdvKeyword("cache-external"))) {
-                targetFileSystem = "cache-external";
-            } else if (path.startsWith(LocalFilesystemURL.fsNameToCdvKeyword("assets"))) {
-                targetFileSystem = "assets";
-            } else if (path.startsWith(LocalFilesystemURL.fsNameToCdvKeyword("content"))) {
-                targetFileSystem = "content";
-            }
-
-            boolean isAssetsFS = "assets".equals(targetFileSystem);
-
-            if (targetFileSystem != null) {
-                // Loop the registered file systems to find the target.
-                for (Filesystem fileSystem : filesystems) {
-                    /*
-                     * When target is discovered:
-                     * 1. Transform the url path to the native path
-                     * 2. Load the file contents
-                     * 3. Get the file mime type
-                     * 4. Return the file & mime information back we Web Resources
-                     */
-                    if (fileSystem.name.equals(targetFileSystem)) {
-                        // E.g. replace __cdvfile_persistent__ with native path "/data/user/0/com.example.file/files/files/"
-
-                        if ("content".equals(targetFileSystem)) {
-                            // The WebviewAssetLoader uses getPath API, which gives us a decoded path
-                            // For content paths however, we need it to remain encoded.
-                            // The Uri.encode API will encode forward slashes, therefore we must
-                            // split the path, encode each segment, and rebuild the path
-                            String[] pathParts = path.split("/");
-                            path = "";
-                            for (String part : pathParts) {
-                                if ("".equals(path)) {
-                                    path = Uri.encode(part);
-                                }
-                                else {
-                                    path += "/" + Uri.encode(part);
-                                }
-                            }
-                        }
+    /**
+     * Returns the content encoding of the precompressed variant to serve for an asset, or null to
+     * serve the asset itself. Variants are siblings of the asset with a .br or .gz suffix, as
+     * generated by build-extras.gradle. The WebView advertises gzip for every request, and brotli
+     * for secure origins only.
+     */
+    private String precompressedAssetEncoding(AssetFilesystem assetFs, String assetPath) {
+        if (!servePrecompressedAssets) {
+            return null;
+        }
+        if (Filesystem.SCHEME_HTTPS.equals(preferences.getString("scheme", Filesystem.SCHEME_HTTPS).toLowerCase()) && assetFs.assetExists(assetPath + ".br")) {
+            return "br";
+        }
+        if (assetFs.assetExists(assetPath + ".gz")) {
+            return "gzip";
+        }
+        return null;
+    }
 
-                        String fileSystemNativeUri = fileSystem.rootUri.toString().replace("file://", "");
-                        String fileTarget = path.replace(LocalFilesystemURL.fsNameToCdvKeyword(targetFileSystem) + "/", fileSystemNativeUri);
+    private static String formatHttpDate(long time) {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format.format(new Date(time));
+    }
 
-                        if (isAssetsFS) {
-                            fileTarget = fileTarget.replace("/android_asset/", "");
-                        }
+    /**
+     * Appends each "/"-separated segment of a decoded path to the builder in encoded form.
+     */
+    private static StringBuilder appendEncodedPath(StringBuilder builder, String path) {
+        int segmentStart = 0;
+        while (true) {
+            int segmentEnd = path.indexOf('/', segmentStart);
+            if (segmentEnd < 0) {
+                builder.append(Uri.encode(path.substring(segmentStart)));
+                return builder;
+            }
+            builder.append(Uri.encode(path.substring(segmentStart, segmentEnd))).append('/');
+            segmentStart = segmentEnd + 1;
+        }
+    }
 
-                        Uri fileUri = Uri.parse(fileTarget);
-                        String mimeType = null;
-
-                        try {
-                            InputStream io = null;
-                            if (isAssetsFS) {
-                                io = webView.getContext().getAssets().open(fileTarget);
-                                mimeType = getMimeType(fileUri);
-                            } else {
-                                if (fileUri.getScheme() == null) {
-                                    fileUri = Uri.parse(fileSystem.rootUri.getScheme() + "://" + fileUri.getPath());
-                                }
-                                CordovaResourceApi.OpenForReadResult resource = resourceApi.openForRead(fileUri);
-                                io = resource.inputStream;
-                                mimeType = resource.mimeType;
-                            }
+    private WebResourceResponse serveAsset(AssetFilesystem assetFs, String assetPath) throws IOException {
+        // Assets can only change when the application is updated.
+        long lastModified = assetsLastModified;
+        String cacheKey = assetFs.rootUri + assetPath;
+        String contentEncoding = precompressedAssetEncoding(assetFs, assetPath);
 
-                            return new WebResourceResponse(mimeType, null, io);
-                        } catch (FileNotFoundException e) {
-                            Log.e(LOG_TAG, e.getMessage());
-                        } catch (IOException e) {
-                            Log.e(LOG_TAG, e.getMessage());
-                        }
-                    }
+        if (resourceCache != null && contentEncoding == null) {
+            ResourceCache.Entry cached = resourceCache.get(cacheKey, lastModified);
+            if (cached != null) {
+                return createPathHandlerResponse(assetFs, cached.mimeType, cached.data.length, cached.lastModified, null, new ByteArrayInputStream(cached.data));
+            }
+        }
+
+        String assetTarget = assetPath;
+        if (contentEncoding != null) {
+            assetTarget += "br".equals(contentEncoding) ? ".br" : ".gz";
+        }
+        InputStream io;
+        long length;
+        // Prefer a file descriptor so that seeking within the asset is a positional
+        // read rather than an inflate-and-discard of the leading bytes.
+        try {
+            AssetFileDescriptor assetFd = webView.getContext().getAssets().openFd(assetTarget);
+            io = assetFd.createInputStream();
+            length = assetFd.getLength();
+        } catch (FileNotFoundException e) {
+            // Will occur if the asset is compressed.
+            io = webView.getContext().getAssets().open(assetTarget);
+            length = assetFs.getAssetSize(assetTarget);
+        }
+        String mimeType = getMimeType(assetPath);
+
+        if (resourceCache != null && contentEncoding == null && resourceCache.accepts(length)) {
+            ResourceCache.Entry entry = resourceCache.put(cacheKey, lastModified, mimeType, io, length);
+            io = new ByteArrayInputStream(entry.data);
+        }
+        return createPathHandlerResponse(assetFs, mimeType, length, lastModified, contentEncoding, io);
+    }
+
+    private WebResourceResponse serveFile(Filesystem fs, CordovaResourceApi resourceApi, File file) throws IOException {
+        long lastModified = file.lastModified();
+        String cacheKey = file.getAbsolutePath();
+
+        if (resourceCache != null) {
+            ResourceCache.Entry cached = resourceCache.get(cacheKey, lastModified);
+            if (cached != null) {
+                return createPathHandlerResponse(fs, cached.mimeType, cached.data.length, cached.lastModified, null, new ByteArrayInputStream(cached.data));
+            }
+        }
+
+        // A FileInputStream, so skip() seeks.
+        CordovaResourceApi.OpenForReadResult resource = resourceApi.openForRead(Uri.fromFile(file));
+        InputStream io = resource.inputStream;
+
+        if (resourceCache != null && resourceCache.accepts(resource.length)) {
+            ResourceCache.Entry entry = resourceCache.put(cacheKey, lastModified, resource.mimeType, io, resource.length);
+            io = new ByteArrayInputStream(entry.data);
+        }
+        return createPathHandlerResponse(fs, resource.mimeType, resource.length, lastModified, null, io);
+    }
+
+    private WebResourceResponse serveContent(Filesystem fs, CordovaResourceApi resourceApi, Uri contentUri) throws IOException {
+        // Opened through the provider's AssetFileDescriptor, so skip() seeks.
+        CordovaResourceApi.OpenForReadResult resource = resourceApi.openForRead(contentUri);
+        return createPathHandlerResponse(fs, resource.mimeType, resource.length, -1, null, resource.inputStream);
+    }
+
+    private WebResourceResponse serveFilesystemURL(Filesystem fs, String subPath) throws IOException {
+        Uri.Builder builder = fs.createLocalUriBuilder();
+        if (!subPath.isEmpty()) {
+            builder.appendEncodedPath(appendEncodedPath(new StringBuilder(subPath.length() + 16), subPath).toString());
+        }
+        LocalFilesystemURL inputURL = LocalFilesystemURL.parse(builder.build());
+        CordovaResourceApi.OpenForReadResult resource = fs.openForRead(inputURL);
+        return createPathHandlerResponse(fs, resource.mimeType, resource.length, -1, null, resource.inputStream);
+    }
+
+    public CordovaPluginPathHandler getPathHandler() {
+        final CordovaResourceApi resourceApi = webView.getResourceApi();
+
+        WebViewAssetLoader.PathHandler pathHandler = path -> {
+            // The path starts with the filesystem keyword, e.g. "__cdvfile_persistent__/path/to/file"
+            int keywordEnd = path.indexOf('/');
+            if (keywordEnd < 0) {
+                return null;
+            }
+            Filesystem fileSystem = pathHandlerRoutes.get(path.substring(0, keywordEnd));
+            if (fileSystem == null) {
+                return null;
+            }
+            String subPath = path.substring(keywordEnd + 1);
+
+            long startedAt = System.nanoTime();
+            OperationTrace trace = OperationTrace.queue(PATH_HANDLER_ACTION);
+            if (trace != null) {
+                trace.start();
+                OperationTrace.describe(path, fileSystem.name);
+                OperationTrace.phase("open");
+            }
+            try {
+                if (fileSystem instanceof AssetFilesystem) {
+                    return serveAsset((AssetFilesystem) fileSystem, subPath);
+                } else if (fileSystem instanceof LocalFilesystem) {
+                    // E.g. resolve against the native root "/data/user/0/com.example.file/files/files/"
+                    return serveFile(fileSystem, resourceApi, new File(fileSystem.rootUri.getPath(), subPath));
+                } else if (fileSystem instanceof ContentFilesystem) {
+                    // The WebviewAssetLoader uses getPath API, which gives us a decoded path
+                    // For content paths however, we need it to remain encoded.
+                    StringBuilder contentUri = new StringBuilder(subPath.length() + 32).append("content://");
+                    return serveContent(fileSystem, resourceApi, Uri.parse(appendEncodedPath(contentUri, subPath).toString()));
+                } else {
+                    return serveFilesystemURL(fileSystem, subPath);
+                }
+            } catch (FileNotFoundException e) {
+                stats.recordError(PATH_HANDLER_ACTION, e);
+                Log.e(LOG_TAG, e.getMessage());
+            } catch (IOException e) {
+                stats.recordError(PATH_HANDLER_ACTION, e);
+                Log.e(LOG_TAG, e.getMessage());
+            } finally {
+                // Time to open the resource; the WebView reads it afterwards.
+                stats.recordAction(PATH_HANDLER_ACTION, -1, System.nanoTime() - startedAt);
+                if (trace != null) {
+                    trace.finish();
                 }
             }
 
@@ -18,14 +18,23 @@
  */
 package org.apache.cordova.file;
 
+import android.content.ComponentCallbacks2;
 import android.net.Uri;
+import android.os.Build;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
 
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 
@@ -55,6 +64,19 @@ public abstract class Filesystem {
 
     public interface ReadFileCallback {
         public void handleData(InputStream inputStream, String contentType) throws IOException;
+
+        /**
+         * Like {@link #handleData(InputStream, String)}, for filesystems that know how long the
+         * requested range is. Callbacks that can use the length should override this.
+         *
+         * @param inputStream   The requested range of the file
+         * @param contentType   The file's mime type
+         * @param length        The number of bytes the stream will return, or -1 if it isn't
+         *                      known in advance
+         */
+        default void handleData(InputStream inputStream, String contentType, long length) throws IOException {
+            handleData(inputStream, contentType);
+        }
     }
 
     public static JSONObject makeEntryForURL(LocalFilesystemURL inputURL, Uri nativeURL) {
@@ -160,6 +182,24 @@ public abstract class Filesystem {
         return null;
     }
 
+    /**
+     * Builds the URL for a full path from its components, for filesystems whose native URIs
+     * can't be derived from the path.
+     */
+    protected LocalFilesystemURL localUrlForPath(String fullPath, boolean isDirectory) {
+        Uri.Builder b = createLocalUriBuilder();
+        for (String segment : fullPath.split("/+")) {
+            if (!segment.isEmpty()) {
+                b.appendPath(segment);
+            }
+        }
+        if (isDirectory) {
+            // Add trailing / for directories.
+            b.appendEncodedPath("");
+        }
+        return LocalFilesystemURL.parse(b.build());
+    }
+
     /**
      * Removes multiple repeated //s, and collapses processes ../s.
      */
@@ -203,10 +243,31 @@ public abstract class Filesystem {
     public abstract LocalFilesystemURL toLocalUri(Uri inputURL);
 
     public JSONObject getRootEntry() {
-        if (rootEntry == null) {
-            rootEntry = makeEntryForNativeUri(rootUri);
+        JSONObject entry = rootEntry;
+        if (entry == null) {
+            entry = makeEntryForNativeUri(rootUri);
+            rootEntry = entry;
         }
-        return rootEntry;
+        return entry;
+    }
+
+    /**
+     * Releases memory in response to {@link ComponentCallbacks2#onTrimMemory(int)}. Filesystems
+     * that cache anything that can be looked up again should override this and drop it too.
+     */
+    public void trimMemory(int level) {
+        if (isSevereTrimLevel(level)) {
+            rootEntry = null;
+        }
+    }
+
+    /**
+     * Whether a trim level asks for everything that can be rebuilt to be released, rather than
+     * just some of it.
+     */
+    static boolean isSevereTrimLevel(int level) {
+        return level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL;
     }
 
     public JSONObject getParentForLocalURL(LocalFilesystemURL inputURL) throws IOException {
@@ -249,9 +310,7 @@ public abstract class Filesystem {
         }
         final LocalFilesystemURL destination = makeDestinationURL(newName, srcURL, destURL, srcURL.isDirectory);
 
-        Uri srcNativeUri = srcFs.toNativeUri(srcURL);
-
-        CordovaResourceApi.OpenForReadResult ofrr = resourceApi.openForRead(srcNativeUri);
+        CordovaResourceApi.OpenForReadResult ofrr = srcFs.openForRead(srcURL);
         OutputStream os = null;
         try {
             os = getOutputStreamForURL(destination);
@@ -260,7 +319,7 @@ public abstract class Filesystem {
             throw e;
         }
         // Closes streams.
-        resourceApi.copyResource(ofrr, os);
+        copyResource(ofrr, os);
 
         if (move) {
             srcFs.removeFileAtLocalURL(srcURL);
@@ -268,13 +327,82 @@ public abstract class Filesystem {
         return getEntryForLocalURL(destination);
     }
 
+    /**
+     * Copies a resource to a stream, like {@link CordovaResourceApi#copyResource}, but through a
+     * buffer from the shared {@link BufferPool} instead of a new one for every copy. Files are
+     * copied with a channel transfer instead when their length is known. Both streams are closed.
+     */
+    static void copyResource(CordovaResourceApi.OpenForReadResult input, OutputStream outputStream) throws IOException {
+        try {
+            InputStream inputStream = input.inputStream;
+            if (inputStream instanceof FileInputStream && outputStream instanceof FileOutputStream && input.length >= 0
+                    && isRegularFile(((FileInputStream) inputStream).getFD())
+                    && isRegularFile(((FileOutputStream) outputStream).getFD())) {
+                FileChannel inChannel = ((FileInputStream) inputStream).getChannel();
+                FileChannel outChannel = ((FileOutputStream) outputStream).getChannel();
+                long offset = input.assetFd != null ? input.assetFd.getStartOffset() : 0;
+                inChannel.position(offset);
+                long position = 0;
+                while (position < input.length) {
+                    long transferred = outChannel.transferFrom(inChannel, position, input.length - position);
+                    if (transferred <= 0) {
+                        break;
+                    }
+                    position += transferred;
+                }
+            } else {
+                BufferPool pool = BufferPool.getShared();
+                byte[] buffer = pool.acquire();
+                try {
+                    int bytesRead;
+                    while ((bytesRead = inputStream.read(buffer, 0, buffer.length)) > 0) {
+                        outputStream.write(buffer, 0, bytesRead);
+                    }
+                    outputStream.flush();
+                } finally {
+                    pool.release(buffer);
+                }
+            }
+        } finally {
+            input.inputStream.close();
+            if (outputStream != null) {
+                outputStream.close();
+            }
+        }
+    }
+
+    /**
+     * Whether a descriptor refers to a regular file, which channels can seek in. Streams from
+     * content providers are often pipes, where positional reads and writes fail.
+     */
+    static boolean isRegularFile(FileDescriptor fd) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return false;
+        }
+        try {
+            return OsConstants.S_ISREG(Os.fstat(fd).st_mode);
+        } catch (ErrnoException e) {
+            return false;
+        }
+    }
+
     public OutputStream getOutputStreamForURL(LocalFilesystemURL inputURL) throws IOException {
         return resourceApi.openOutputStream(toNativeUri(inputURL));
     }
 
+    /**
+     * Opens the file at the given URL for reading, e.g. to serve it through the WebView path
+     * handler or to copy it to another filesystem. Filesystems whose files have no native URI
+     * that CordovaResourceApi can open should override this. The caller is responsible for
+     * closing the returned stream.
+     */
+    public CordovaResourceApi.OpenForReadResult openForRead(LocalFilesystemURL inputURL) throws IOException {
+        return resourceApi.openForRead(toNativeUri(inputURL));
+    }
+
     public void readFileAtURL(LocalFilesystemURL inputURL, long start, long end,
                               ReadFileCallback readFileCallback) throws IOException {
-        CordovaResourceApi.OpenForReadResult ofrr = resourceApi.openForRead(toNativeUri(inputURL));
+        CordovaResourceApi.OpenForReadResult ofrr = openForRead(inputURL);
         if (end < 0) {
             end = ofrr.length;
         }
@@ -287,7 +415,8 @@ public abstract class Filesystem {
             if (end < ofrr.length) {
                 inputStream = new LimitedInputStream(inputStream, numBytesToRead);
             }
-            readFileCallback.handleData(inputStream, ofrr.mimeType);
+            long length = ofrr.length < 0 ? -1 : Math.max(0, Math.min(end, ofrr.length) - start);
+            readFileCallback.handleData(inputStream, ofrr.mimeType, length);
         } finally {
             ofrr.inputStream.close();
         }
@@ -336,6 +465,10 @@ public abstract class Filesystem {
     }
 
     protected Uri.Builder createLocalUriBuilder() {
+        return createLocalUriBuilder(name, preferences);
+    }
+
+    static Uri.Builder createLocalUriBuilder(String name, CordovaPreferences preferences) {
         String scheme = preferences.getString("scheme", SCHEME_HTTPS).toLowerCase();
         String hostname = preferences.getString("hostname", DEFAULT_HOSTNAME).toLowerCase();
         String path = LocalFilesystemURL.fsNameToCdvKeyword(name);
@@ -0,0 +1,195 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.file;
+
+import android.os.Process;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs file operations on the plugin's own threads, instead of the thread pool shared with other
+ * plugins. Operations are split into lanes by how long they take, so that a long copy or recursive
+ * removal can't hold up metadata lookups queued behind it. Each lane has a fixed number of threads
+ * and a bounded queue, and the number of streaming and bulk operations running against any one
+ * storage volume at the same time is limited as well.
+ */
+class IoScheduler {
+
+    enum Lane {
+        /** Lookups and small changes that the UI is usually waiting on */
+        INTERACTIVE(Process.THREAD_PRIORITY_DEFAULT),
+        /** Reading and writing file contents */
+        STREAMING(Process.THREAD_PRIORITY_DEFAULT),
+        /** Operations on whole trees, such as copies, moves and recursive removals */
+        BULK(Process.THREAD_PRIORITY_BACKGROUND);
+
+        final int threadPriority;
+
+        Lane(int threadPriority) {
+            this.threadPriority = threadPriority;
+        }
+    }
+
+    private static class LaneExecutor extends ThreadPoolExecutor {
+        final AtomicInteger maxQueued = new AtomicInteger();
+        final AtomicLong rejected = new AtomicLong();
+
+        LaneExecutor(final Lane lane, int threads, int queueCapacity) {
+            super(threads, threads, 30, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueCapacity), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(final Runnable r) {
+                    String name = "FileIO-" + lane.name().toLowerCase(Locale.US) + "-" + count.incrementAndGet();
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(lane.threadPriority);
+                            r.run();
+                        }
+                    }, name);
+                }
+            });
+            allowCoreThreadTimeOut(true);
+        }
+    }
+
+    private final LaneExecutor[] lanes = new LaneExecutor[Lane.values().length];
+    private final int volumeParallelism;
+    private final ConcurrentHashMap<String, Semaphore> volumes = new ConcurrentHashMap<String, Semaphore>();
+
+    /**
+     * @param threads           The number of threads for each lane, indexed by ordinal
+     * @param queueCapacity     The number of operations that may wait in each lane
+     * @param volumeParallelism The number of operations that may run against one volume at once
+     */
+    IoScheduler(int[] threads, int queueCapacity, int volumeParallelism) {
+        for (Lane lane : Lane.values()) {
+            lanes[lane.ordinal()] = new LaneExecutor(lane, Math.max(1, threads[lane.ordinal()]), Math.max(1, queueCapacity));
+        }
+        this.volumeParallelism = Math.max(1, volumeParallelism);
+    }
+
+    /**
+     * Queues a task on the given lane.
+     *
+     * @return  false if the lane's queue is full
+     */
+    boolean execute(Lane lane, Runnable task) {
+        LaneExecutor executor = lanes[lane.ordinal()];
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            executor.rejected.incrementAndGet();
+            return false;
+        }
+        int queued = executor.getQueue().size();
+        int max;
+        while (queued > (max = executor.maxQueued.get()) && !executor.maxQueued.compareAndSet(max, queued)) {
+            // Retry until the high-water mark is at least as high as what we saw.
+        }
+        return true;
+    }
+
+    private Semaphore semaphoreFor(String volume) {
+        Semaphore semaphore = volumes.get(volume);
+        if (semaphore == null) {
+            semaphore = new Semaphore(volumeParallelism, true);
+            Semaphore existing = volumes.putIfAbsent(volume, semaphore);
+            if (existing != null) {
+                semaphore = existing;
+            }
+        }
+        return semaphore;
+    }
+
+    /**
+     * Waits until another operation may run against the given volume. Interactive operations are
+     * short and aren't limited, so that they never queue for a permit behind streaming and bulk
+     * operations; their own lane's thread count already bounds them.
+     *
+     * @return  Whether a permit was taken, in which case {@link #exitVolume(String)} must be
+     *          called once the operation is finished
+     */
+    boolean enterVolume(Lane lane, String volume) {
+        if (lane == Lane.INTERACTIVE) {
+            return false;
+        }
+        semaphoreFor(volume).acquireUninterruptibly();
+        return true;
+    }
+
+    void exitVolume(String volume) {
+        semaphoreFor(volume).release();
+    }
+
+    /**
+     * Returns the current and peak queue depths and task counts for each lane, and the number of
+     * running and waiting operations for each volume.
+     */
+    JSONObject getStats() throws JSONException {
+        JSONObject stats = new JSONObject();
+        JSONObject laneStats = new JSONObject();
+        for (Lane lane : Lane.values()) {
+            LaneExecutor executor = lanes[lane.ordinal()];
+            JSONObject s = new JSONObject();
+            s.put("threads", executor.getMaximumPoolSize());
+            s.put("active", executor.getActiveCount());
+            s.put("queued", executor.getQueue().size());
+            s.put("maxQueued", executor.maxQueued.get());
+            s.put("completed", executor.getCompletedTaskCount());
+            s.put("rejected", executor.rejected.get());
+            laneStats.put(lane.name().toLowerCase(Locale.US), s);
+        }
+        stats.put("lanes", laneStats);
+
+        JSONObject volumeStats = new JSONObject();
+        for (Map.Entry<String, Semaphore> volume : volumes.entrySet()) {
+            JSONObject s = new JSONObject();
+            s.put("active", volumeParallelism - volume.getValue().availablePermits());
+            s.put("waiting", volume.getValue().getQueueLength());
+            volumeStats.put(volume.getKey(), s);
+        }
+        stats.put("volumes", volumeStats);
+        stats.put("volumeParallelism", volumeParallelism);
+        return stats;
+    }
+
+    /**
+     * Stops accepting tasks. Queued tasks are still run.
+     */
+    void shutdown() {
+        for (LaneExecutor executor : lanes) {
+            executor.shutdown();
+        }
+    }
+}
@@ -23,28 +23,45 @@ import android.content.Intent;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Environment;
+import android.os.ParcelFileDescriptor;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
 import android.util.Base64;
 
 import org.apache.cordova.CordovaPreferences;
+import org.apache.cordova.LOG;
 import org.apache.cordova.CordovaResourceApi;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 public class LocalFilesystem extends Filesystem {
+    private static final String LOG_TAG = "LocalFilesystem";
+    private static final long COPY_TRANSFER_SIZE = 8 * 1024 * 1024;
+
+    // Shared by all local filesystems, since their roots can overlap
+    private static final PathLocks pathLocks = new PathLocks(256);
+
     private final Context context;
 
     public LocalFilesystem(String name, Context context, CordovaResourceApi resourceApi, File fsRoot, CordovaPreferences preferences) {
         super(Uri.fromFile(fsRoot).buildUpon().appendEncodedPath("").build(), name, resourceApi, preferences);
         this.context = context;
+        pathLocks.addRoot(fsRoot.getAbsolutePath());
     }
 
     public String filesystemPathForFullPath(String fullPath) {
@@ -137,16 +154,21 @@ public class LocalFilesystem extends Filesystem {
         File fp = new File(this.filesystemPathForURL(requestedURL));
 
         if (create) {
-            if (exclusive && fp.exists()) {
-                throw new FileExistsException("create/exclusive fails");
-            }
-            if (directory) {
-                fp.mkdir();
-            } else {
-                fp.createNewFile();
-            }
-            if (!fp.exists()) {
-                throw new FileExistsException("create fails");
+            PathLocks.Held held = pathLocks.lockForWriting(fp.getPath());
+            try {
+                if (exclusive && fp.exists()) {
+                    throw new FileExistsException("create/exclusive fails");
+                }
+                if (directory) {
+                    fp.mkdir();
+                } else {
+                    fp.createNewFile();
+                }
+                if (!fp.exists()) {
+                    throw new FileExistsException("create fails");
+                }
+            } finally {
+                held.release();
             }
         }
         else {
@@ -173,12 +195,17 @@ public class LocalFilesystem extends Filesystem {
 
         File fp = new File(filesystemPathForURL(inputURL));
 
-        // You can't delete a directory that is not empty
-        if (fp.isDirectory() && fp.list().length > 0) {
-            throw new InvalidModificationException("You can't delete a directory that is not empty.");
-        }
+        PathLocks.Held held = pathLocks.lockForWriting(fp.getPath());
+        try {
+            // You can't delete a directory that is not empty
+            if (fp.isDirectory() && fp.list().length > 0) {
+                throw new InvalidModificationException("You can't delete a directory that is not empty.");
+            }
 
-        return fp.delete();
+            return fp.delete();
+        } finally {
+            held.release();
+        }
     }
 
     @Override
@@ -195,7 +222,12 @@ public class LocalFilesystem extends Filesystem {
     @Override
     public boolean recursiveRemoveFileAtLocalURL(LocalFilesystemURL inputURL) throws FileExistsException {
         File directory = new File(filesystemPathForURL(inputURL));
-        return removeDirRecursively(directory);
+        PathLocks.Held held = pathLocks.lockForWriting(directory.getPath());
+        try {
+            return removeDirRecursively(directory);
+        } finally {
+            held.release();
+        }
     }
 
     protected boolean removeDirRecursively(File directory) throws FileExistsException {
@@ -256,24 +288,138 @@ public class LocalFilesystem extends Filesystem {
         return metadata;
     }
 
-    private void copyFile(Filesystem srcFs, LocalFilesystemURL srcURL, File destFile, boolean move) throws IOException, InvalidModificationException, NoModificationAllowedException {
+    /**
+     * Copies a single file.
+     *
+     * @param digest    If not null, updated with every byte copied
+     * @return          false if the file was moved by renaming it, without copying its contents
+     */
+    private boolean copyFile(Filesystem srcFs, LocalFilesystemURL srcURL, File destFile, boolean move, MessageDigest digest) throws IOException, InvalidModificationException, NoModificationAllowedException {
         if (move) {
             String realSrcPath = srcFs.filesystemPathForURL(srcURL);
             if (realSrcPath != null) {
                 File srcFile = new File(realSrcPath);
                 if (srcFile.renameTo(destFile)) {
-                    return;
+                    return false;
                 }
                 // Trying to rename the file failed.  Possibly because we moved across file system on the device.
             }
         }
 
-        CordovaResourceApi.OpenForReadResult offr = resourceApi.openForRead(srcFs.toNativeUri(srcURL));
-        resourceApi.copyResource(offr, new FileOutputStream(destFile));
+        ParcelFileDescriptor srcFd = null;
+        if (srcFs instanceof ContentFilesystem) {
+            srcFd = ((ContentFilesystem) srcFs).openFileDescriptor(srcFs.toNativeUri(srcURL), "r");
+        }
+
+        if (srcFd != null) {
+            copyFileDescriptor(srcFd, destFile, digest);
+        } else {
+            CordovaResourceApi.OpenForReadResult offr = srcFs.openForRead(srcURL);
+            if (digest != null) {
+                offr = new CordovaResourceApi.OpenForReadResult(offr.uri, new DigestInputStream(offr.inputStream, digest),
+                        offr.mimeType, offr.length, offr.assetFd);
+            }
+            copyResource(offr, new FileOutputStream(destFile));
+        }
 
         if (move) {
             srcFs.removeFileAtLocalURL(srcURL);
         }
+        return true;
+    }
+
+    /**
+     * Copies from a content provider's file descriptor with channel transfers when it is a
+     * regular file, so large files don't pass through a Java buffer. The destination is first preallocated to the size the
+     * provider reports, which fails early when there is not enough space and lets the
+     * filesystem lay the file out in one piece.
+     */
+    private static void copyFileDescriptor(ParcelFileDescriptor srcFd, File destFile, MessageDigest digest) throws IOException {
+        FileInputStream in = new ParcelFileDescriptor.AutoCloseInputStream(srcFd);
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(destFile);
+            FileChannel inChannel = in.getChannel();
+            FileChannel outChannel = out.getChannel();
+
+            long size = srcFd.getStatSize();
+            if (size > 0) {
+                preallocate(out.getFD(), size);
+            }
+
+            long position = 0;
+            // Providers often hand out pipes, on which transferFrom fails or copies nothing.
+            if (digest == null && size >= 0 && isRegularFile(srcFd.getFileDescriptor())) {
+                long transferred;
+                while ((transferred = outChannel.transferFrom(inChannel, position, COPY_TRANSFER_SIZE)) > 0) {
+                    position += transferred;
+                }
+            } else {
+                // The checksum needs to see the bytes, and pipes can only be read in order, so
+                // copy through a buffer instead.
+                BufferPool pool = BufferPool.getShared();
+                ByteBuffer buffer = pool.acquireDirect();
+                try {
+                    while (inChannel.read(buffer) >= 0) {
+                        buffer.flip();
+                        if (digest != null) {
+                            digest.update(buffer.duplicate());
+                        }
+                        while (buffer.hasRemaining()) {
+                            position += outChannel.write(buffer);
+                        }
+                        buffer.clear();
+                    }
+                } finally {
+                    pool.releaseDirect(buffer);
+                }
+            }
+            // The reported size may have been stale, so drop anything preallocated past the end.
+            if (outChannel.size() > position) {
+                outChannel.truncate(position);
+            }
+        } finally {
+            in.close();
+            if (out != null) {
+                out.close();
+            }
+        }
+    }
+
+    private static void preallocate(FileDescriptor fd, long size) throws IOException {
+        try {
+            Os.posix_fallocate(fd, 0, size);
+        } catch (ErrnoException e) {
+            if (e.errno == OsConstants.ENOSPC) {
+                throw new IOException("Not enough space to copy the file", e);
+            }
+            // Not every filesystem supports preallocation (e.g. FAT on removable storage); copy without it.
+        }
+    }
+
+    /**
+     * Creates the digest for the algorithm named by the AndroidFileCopyChecksum preference, or
+     * returns null if no checksum was requested.
+     */
+    private MessageDigest createCopyDigest() {
+        String algorithm = preferences.getString("androidfilecopychecksum", null);
+        if (algorithm == null || algorithm.isEmpty()) {
+            return null;
+        }
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            LOG.w(LOG_TAG, "Unsupported AndroidFileCopyChecksum algorithm: " + algorithm);
+            return null;
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
     }
 
     private void copyDirectory(Filesystem srcFs, LocalFilesystemURL srcURL, File dstDir, boolean move) throws IOException, NoModificationAllowedException, InvalidModificationException, FileExistsException {
@@ -313,7 +459,7 @@ public class LocalFilesystem extends Filesystem {
             if (childLocalUrl.isDirectory) {
                 copyDirectory(srcFs, childLocalUrl, target, false);
             } else {
-                copyFile(srcFs, childLocalUrl, target, false);
+                copyFile(srcFs, childLocalUrl, target, false, null);
             }
         }
 
@@ -349,69 +495,83 @@ public class LocalFilesystem extends Filesystem {
         }
 
         File destFile = new File(dstNativeUri.getPath());
-        if (destFile.exists()) {
-            if (!srcURL.isDirectory && destFile.isDirectory()) {
-                throw new InvalidModificationException("Can't copy/move a file to an existing directory");
-            } else if (srcURL.isDirectory && destFile.isFile()) {
-                throw new InvalidModificationException("Can't copy/move a directory to an existing file");
+        // Only local sources need locking; other filesystems don't share our files.
+        String srcPath = srcFs instanceof LocalFilesystem ? srcFs.filesystemPathForURL(srcURL) : null;
+        PathLocks.Held held = pathLocks.lock(new String[] { destFile.getPath(), move ? srcPath : null },
+                new String[] { move ? null : srcPath });
+        try {
+            if (destFile.exists()) {
+                if (!srcURL.isDirectory && destFile.isDirectory()) {
+                    throw new InvalidModificationException("Can't copy/move a file to an existing directory");
+                } else if (srcURL.isDirectory && destFile.isFile()) {
+                    throw new InvalidModificationException("Can't copy/move a directory to an existing file");
+                }
             }
-        }
 
-        if (srcURL.isDirectory) {
-            // E.g. Copy /sdcard/myDir to /sdcard/myDir/backup
-            if (dstNativeUri.toString().startsWith(srcNativeUri.toString() + '/')) {
-                throw new InvalidModificationException("Can't copy directory into itself");
+            if (srcURL.isDirectory) {
+                // E.g. Copy /sdcard/myDir to /sdcard/myDir/backup
+                if (dstNativeUri.toString().startsWith(srcNativeUri.toString() + '/')) {
+                    throw new InvalidModificationException("Can't copy directory into itself");
+                }
+                copyDirectory(srcFs, srcURL, destFile, move);
+            } else {
+                MessageDigest digest = createCopyDigest();
+                if (copyFile(srcFs, srcURL, destFile, move, digest) && digest != null) {
+                    JSONObject entry = makeEntryForURL(destinationURL);
+                    entry.put("checksum", toHex(digest.digest()));
+                    return entry;
+                }
             }
-            copyDirectory(srcFs, srcURL, destFile, move);
-        } else {
-            copyFile(srcFs, srcURL, destFile, move);
+            return makeEntryForURL(destinationURL);
+        } finally {
+            held.release();
         }
-        return makeEntryForURL(destinationURL);
     }
 
     @Override
     public long writeToFileAtURL(LocalFilesystemURL inputURL, String data,
             int offset, boolean isBinary) throws IOException, NoModificationAllowedException {
+        PathLocks.Held held = pathLocks.lockForWriting(filesystemPathForURL(inputURL));
+        try {
+            boolean append = false;
+            if (offset > 0) {
+                this.truncateFileAtURL(inputURL, offset);
+                append = true;
+            }
 
-        boolean append = false;
-        if (offset > 0) {
-            this.truncateFileAtURL(inputURL, offset);
-            append = true;
-        }
-
-        byte[] rawData;
-        if (isBinary) {
-            rawData = Base64.decode(data, Base64.DEFAULT);
-        } else {
-            rawData = data.getBytes(Charset.defaultCharset());
-        }
-        ByteArrayInputStream in = new ByteArrayInputStream(rawData);
-        try
-        {
-            byte buff[] = new byte[rawData.length];
-            String absolutePath = filesystemPathForURL(inputURL);
-            FileOutputStream out = new FileOutputStream(absolutePath, append);
-            try {
-                in.read(buff, 0, buff.length);
-                out.write(buff, 0, rawData.length);
-                out.flush();
-            } finally {
-                // Always close the output
-                out.close();
+            byte[] rawData;
+            if (isBinary) {
+                rawData = Base64.decode(data, Base64.DEFAULT);
+            } else {
+                rawData = data.getBytes(Charset.defaultCharset());
+            }
+            try
+            {
+                String absolutePath = filesystemPathForURL(inputURL);
+                FileOutputStream out = new FileOutputStream(absolutePath, append);
+                try {
+                    out.write(rawData, 0, rawData.length);
+                    out.flush();
+                } finally {
+                    // Always close the output
+                    out.close();
+                }
+                if (isPublicDirectory(absolutePath)) {
+                    broadcastNewFile(Uri.fromFile(new File(absolutePath)));
+                }
             }
-            if (isPublicDirectory(absolutePath)) {
-                broadcastNewFile(Uri.fromFile(new File(absolutePath)));
+            catch (NullPointerException e)
+            {
+                // This is a bug in the Android implementation of the Java Stack
+                NoModificationAllowedException realException = new NoModificationAllowedException(inputURL.toString());
+                realException.initCause(e);
+                throw realException;
             }
-        }
-        catch (NullPointerException e)
-        {
-            // This is a bug in the Android implementation of the Java Stack
-            NoModificationAllowedException realException = new NoModificationAllowedException(inputURL.toString());
-            realException.initCause(e);
-            throw realException;
-        }
 
-        return rawData.length;
+            return rawData.length;
+        } finally {
+            held.release();
+        }
     }
 
     private boolean isPublicDirectory(String absolutePath) {
@@ -445,20 +605,35 @@ public class LocalFilesystem extends Filesystem {
             throw new FileNotFoundException("File at " + inputURL.uri + " does not exist.");
         }
 
-        RandomAccessFile raf = new RandomAccessFile(filesystemPathForURL(inputURL), "rw");
+        PathLocks.Held held = pathLocks.lockForWriting(file.getPath());
         try {
-            if (raf.length() >= size) {
-                FileChannel channel = raf.getChannel();
-                channel.truncate(size);
-                return size;
-            }
+            RandomAccessFile raf = new RandomAccessFile(filesystemPathForURL(inputURL), "rw");
+            try {
+                if (raf.length() >= size) {
+                    FileChannel channel = raf.getChannel();
+                    channel.truncate(size);
+                    return size;
+                }
 
-            return raf.length();
+                return raf.length();
+            } finally {
+                raf.close();
+            }
         } finally {
-            raf.close();
+            held.release();
         }
+    }
 
-
+    @Override
+    public void readFileAtURL(LocalFilesystemURL inputURL, long start, long end,
+                              ReadFileCallback readFileCallback) throws IOException {
+        // Keep a concurrent write from being seen half done.
+        PathLocks.Held held = pathLocks.lockForReading(filesystemPathForURL(inputURL));
+        try {
+            super.readFileAtURL(inputURL, start, end, readFileCallback);
+        } finally {
+            held.release();
+        }
     }
 
     @Override
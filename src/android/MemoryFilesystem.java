@@ -0,0 +1,500 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.file;
+
+import android.net.Uri;
+import android.util.Base64;
+
+import org.apache.cordova.CordovaPreferences;
+import org.apache.cordova.CordovaResourceApi;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A filesystem held entirely in memory, for short-lived scratch files that don't need to touch
+ * storage. Its contents are lost when the app exits.
+ *
+ * The total size of all files is limited to a fixed budget, and writes that would exceed it fail
+ * with QUOTA_EXCEEDED_ERR. File contents are replaced rather than modified in place, so a reader
+ * keeps a consistent view of a file while it is being written, and copies share their data.
+ */
+public class MemoryFilesystem extends Filesystem {
+
+    private static class Node {
+        final boolean isDirectory;
+        final TreeMap<String, Node> children;
+        // Never modified once assigned
+        byte[] data;
+        long lastModified;
+
+        Node(boolean isDirectory) {
+            this.isDirectory = isDirectory;
+            this.children = isDirectory ? new TreeMap<String, Node>() : null;
+            this.data = isDirectory ? null : new byte[0];
+            this.lastModified = System.currentTimeMillis();
+        }
+
+        Node copy() {
+            Node copy = new Node(isDirectory);
+            copy.data = data;
+            copy.lastModified = lastModified;
+            if (isDirectory) {
+                for (Map.Entry<String, Node> child : children.entrySet()) {
+                    copy.children.put(child.getKey(), child.getValue().copy());
+                }
+            }
+            return copy;
+        }
+
+        long size() {
+            if (!isDirectory) {
+                return data.length;
+            }
+            long size = 0;
+            for (Node child : children.values()) {
+                size += child.size();
+            }
+            return size;
+        }
+    }
+
+    private final long maxSize;
+    private final Node root = new Node(true);
+    private long usedSize;
+
+    public MemoryFilesystem(String name, CordovaResourceApi resourceApi, long maxSize, CordovaPreferences preferences) {
+        super(createLocalUriBuilder(name, preferences).appendEncodedPath("").build(), name, resourceApi, preferences);
+        this.maxSize = maxSize;
+    }
+
+    private static String nameOf(String fullPath) {
+        String[] components = fullPath.split("/+");
+        return components.length == 0 ? "" : components[components.length - 1];
+    }
+
+    private static String parentPath(String fullPath) {
+        String path = fullPath.endsWith("/") ? fullPath.substring(0, fullPath.length() - 1) : fullPath;
+        int lastSlash = path.lastIndexOf('/');
+        return lastSlash <= 0 ? "/" : path.substring(0, lastSlash);
+    }
+
+    private static String childPath(String parentPath, String childName) {
+        return (parentPath.endsWith("/") ? parentPath : parentPath + '/') + childName;
+    }
+
+    // All of the following must be called while holding the lock on this filesystem.
+
+    private Node findNode(String fullPath) {
+        Node node = root;
+        for (String component : fullPath.split("/+")) {
+            if (component.isEmpty()) {
+                continue;
+            }
+            if (!node.isDirectory) {
+                return null;
+            }
+            node = node.children.get(component);
+            if (node == null) {
+                return null;
+            }
+        }
+        return node;
+    }
+
+    private Node createNode(String fullPath, boolean directory) {
+        String childName = nameOf(fullPath);
+        Node parent = findNode(parentPath(fullPath));
+        if (childName.isEmpty() || parent == null || !parent.isDirectory) {
+            return null;
+        }
+        Node node = new Node(directory);
+        parent.children.put(childName, node);
+        parent.lastModified = node.lastModified;
+        return node;
+    }
+
+    private void reserve(long delta) throws QuotaExceededException {
+        if (delta > 0 && usedSize + delta > maxSize) {
+            throw new QuotaExceededException("The memory filesystem is full");
+        }
+        usedSize += delta;
+    }
+
+    private void replaceData(Node node, byte[] data) throws QuotaExceededException {
+        reserve(data.length - node.data.length);
+        node.data = data;
+        node.lastModified = System.currentTimeMillis();
+    }
+
+    private String mimeTypeForPath(String fullPath) {
+        return resourceApi.getMimeType(Uri.fromFile(new File(fullPath)));
+    }
+
+    @Override
+    public Uri toNativeUri(LocalFilesystemURL inputURL) {
+        // There is no native file, so the filesystem URL is the only way to reach it.
+        return inputURL.uri;
+    }
+
+    @Override
+    public LocalFilesystemURL toLocalUri(Uri inputURL) {
+        LocalFilesystemURL url = LocalFilesystemURL.parse(inputURL);
+        if (url == null || !name.equals(url.fsName)) {
+            return null;
+        }
+        synchronized (this) {
+            Node node = findNode(url.path);
+            if (node != null && node.isDirectory != url.isDirectory) {
+                return localUrlForPath(url.path, node.isDirectory);
+            }
+        }
+        return url;
+    }
+
+    @Override
+    public LocalFilesystemURL URLforFilesystemPath(String path) {
+        return null;
+    }
+
+    @Override
+    public String filesystemPathForURL(LocalFilesystemURL url) {
+        return null;
+    }
+
+    @Override
+    public JSONObject getFileForLocalURL(LocalFilesystemURL inputURL,
+            String path, JSONObject options, boolean directory) throws FileExistsException, IOException, TypeMismatchException, EncodingException, JSONException {
+        boolean create = false;
+        boolean exclusive = false;
+
+        if (options != null) {
+            create = options.optBoolean("create");
+            if (create) {
+                exclusive = options.optBoolean("exclusive");
+            }
+        }
+
+        // Check for a ":" character in the file to line up with BB and iOS
+        if (path.contains(":")) {
+            throw new EncodingException("This path has an invalid \":\" in it.");
+        }
+
+        String fullPath;
+        if (path.startsWith("/")) {
+            fullPath = normalizePath(path);
+        } else {
+            fullPath = normalizePath(inputURL.path + "/" + path);
+        }
+
+        boolean isDirectory;
+        synchronized (this) {
+            Node node = findNode(fullPath);
+            if (create) {
+                if (exclusive && node != null) {
+                    throw new FileExistsException("create/exclusive fails");
+                }
+                if (node == null) {
+                    node = createNode(fullPath, directory);
+                }
+                if (node == null) {
+                    throw new FileExistsException("create fails");
+                }
+            } else {
+                if (node == null) {
+                    throw new FileNotFoundException("path does not exist");
+                }
+                if (directory && !node.isDirectory) {
+                    throw new TypeMismatchException("path doesn't exist or is file");
+                } else if (!directory && node.isDirectory) {
+                    throw new TypeMismatchException("path doesn't exist or is directory");
+                }
+            }
+            isDirectory = node.isDirectory;
+        }
+
+        return makeEntryForURL(localUrlForPath(fullPath, isDirectory));
+    }
+
+    @Override
+    public synchronized boolean removeFileAtLocalURL(LocalFilesystemURL inputURL) throws InvalidModificationException {
+        Node node = findNode(inputURL.path);
+        if (node == null || node == root) {
+            return false;
+        }
+        // You can't delete a directory that is not empty
+        if (node.isDirectory && !node.children.isEmpty()) {
+            throw new InvalidModificationException("You can't delete a directory that is not empty.");
+        }
+        findNode(parentPath(inputURL.path)).children.remove(nameOf(inputURL.path));
+        usedSize -= node.size();
+        return true;
+    }
+
+    @Override
+    public synchronized boolean recursiveRemoveFileAtLocalURL(LocalFilesystemURL inputURL) throws FileExistsException {
+        Node node = findNode(inputURL.path);
+        if (node == null || node == root) {
+            throw new FileExistsException("could not delete: " + inputURL.path);
+        }
+        findNode(parentPath(inputURL.path)).children.remove(nameOf(inputURL.path));
+        usedSize -= node.size();
+        return true;
+    }
+
+    @Override
+    public synchronized boolean exists(LocalFilesystemURL inputURL) {
+        return findNode(inputURL.path) != null;
+    }
+
+    @Override
+    public synchronized LocalFilesystemURL[] listChildren(LocalFilesystemURL inputURL) throws FileNotFoundException {
+        Node node = findNode(inputURL.path);
+        if (node == null) {
+            // The directory we are listing doesn't exist so we should fail.
+            throw new FileNotFoundException();
+        }
+        if (!node.isDirectory) {
+            return null;
+        }
+        LocalFilesystemURL[] entries = new LocalFilesystemURL[node.children.size()];
+        int i = 0;
+        for (Map.Entry<String, Node> child : node.children.entrySet()) {
+            entries[i++] = localUrlForPath(childPath(inputURL.path, child.getKey()), child.getValue().isDirectory);
+        }
+        return entries;
+    }
+
+    @Override
+    public synchronized JSONObject getFileMetadataForLocalURL(LocalFilesystemURL inputURL) throws FileNotFoundException {
+        Node node = findNode(inputURL.path);
+        if (node == null) {
+            throw new FileNotFoundException("File at " + inputURL.uri + " does not exist.");
+        }
+
+        JSONObject metadata = new JSONObject();
+        try {
+            // Ensure that directories report a size of 0
+            metadata.put("size", node.isDirectory ? 0 : node.data.length);
+            metadata.put("type", node.isDirectory ? null : mimeTypeForPath(inputURL.path));
+            metadata.put("name", nameOf(inputURL.path));
+            metadata.put("fullPath", inputURL.path);
+            metadata.put("lastModifiedDate", node.lastModified);
+        } catch (JSONException e) {
+            return null;
+        }
+        return metadata;
+    }
+
+    @Override
+    public CordovaResourceApi.OpenForReadResult openForRead(LocalFilesystemURL inputURL) throws IOException {
+        byte[] data;
+        synchronized (this) {
+            Node node = findNode(inputURL.path);
+            if (node == null || node.isDirectory) {
+                throw new FileNotFoundException("File at " + inputURL.uri + " does not exist.");
+            }
+            data = node.data;
+        }
+        return new CordovaResourceApi.OpenForReadResult(inputURL.uri, new ByteArrayInputStream(data),
+                mimeTypeForPath(inputURL.path), data.length, null);
+    }
+
+    /**
+     * Returns a stream whose contents replace the file, creating it if needed, once it is closed.
+     */
+    private OutputStream openOutputStream(final String fullPath) {
+        return new ByteArrayOutputStream() {
+            @Override
+            public void close() throws IOException {
+                synchronized (MemoryFilesystem.this) {
+                    Node node = findNode(fullPath);
+                    if (node == null) {
+                        node = createNode(fullPath, false);
+                    }
+                    if (node == null || node.isDirectory) {
+                        throw new FileNotFoundException("Couldn't create the file at " + fullPath);
+                    }
+                    replaceData(node, toByteArray());
+                }
+            }
+        };
+    }
+
+    @Override
+    public OutputStream getOutputStreamForURL(LocalFilesystemURL inputURL) throws IOException {
+        return openOutputStream(inputURL.path);
+    }
+
+    @Override
+    public long writeToFileAtURL(LocalFilesystemURL inputURL, String data,
+            int offset, boolean isBinary) throws IOException {
+        byte[] rawData;
+        if (isBinary) {
+            rawData = Base64.decode(data, Base64.DEFAULT);
+        } else {
+            rawData = data.getBytes(Charset.defaultCharset());
+        }
+
+        synchronized (this) {
+            Node node = findNode(inputURL.path);
+            if (node == null) {
+                node = createNode(inputURL.path, false);
+            }
+            if (node == null || node.isDirectory) {
+                throw new FileNotFoundException("File at " + inputURL.uri + " does not exist.");
+            }
+            // As with local files, the write replaces everything from the offset onwards.
+            int keep = Math.min(offset, node.data.length);
+            byte[] newData = Arrays.copyOf(node.data, keep + rawData.length);
+            System.arraycopy(rawData, 0, newData, keep, rawData.length);
+            replaceData(node, newData);
+        }
+        return rawData.length;
+    }
+
+    @Override
+    public synchronized long truncateFileAtURL(LocalFilesystemURL inputURL, long size) throws IOException {
+        Node node = findNode(inputURL.path);
+        if (node == null || node.isDirectory) {
+            throw new FileNotFoundException("File at " + inputURL.uri + " does not exist.");
+        }
+        if (node.data.length >= size) {
+            replaceData(node, Arrays.copyOf(node.data, (int) size));
+            return size;
+        }
+        return node.data.length;
+    }
+
+    @Override
+    public JSONObject copyFileToURL(LocalFilesystemURL destURL, String newName,
+            Filesystem srcFs, LocalFilesystemURL srcURL, boolean move) throws IOException, InvalidModificationException, JSONException, NoModificationAllowedException, FileExistsException {
+        if (move && !srcFs.canRemoveFileAtLocalURL(srcURL)) {
+            throw new InvalidModificationException("Source URL is read-only (cannot move)");
+        }
+        // I know this looks weird but it is to work around a JSON bug.
+        if ("null".equals(newName) || "".equals(newName)) {
+            newName = nameOf(srcURL.path);
+        }
+        String destPath = childPath(destURL.path, newName);
+        if (srcFs != this) {
+            if (srcURL.isDirectory) {
+                copyDirectoryFrom(srcFs, srcURL, destPath);
+            } else {
+                copyResource(srcFs.openForRead(srcURL), openOutputStream(destPath));
+            }
+            if (move) {
+                if (srcURL.isDirectory) {
+                    srcFs.recursiveRemoveFileAtLocalURL(srcURL);
+                } else {
+                    srcFs.removeFileAtLocalURL(srcURL);
+                }
+            }
+            return makeEntryForURL(localUrlForPath(destPath, srcURL.isDirectory));
+        }
+
+        boolean isDirectory;
+        synchronized (this) {
+            Node srcNode = findNode(srcURL.path);
+            if (srcNode == null) {
+                throw new FileNotFoundException("The source does not exist");
+            }
+            Node destParent = findNode(destURL.path);
+            if (destParent == null || !destParent.isDirectory) {
+                throw new FileNotFoundException("The destination does not exist");
+            }
+            if (normalizePath(destPath).equals(normalizePath(srcURL.path))) {
+                throw new InvalidModificationException("Can't copy onto itself");
+            }
+            if (srcNode.isDirectory && normalizePath(destPath).startsWith(normalizePath(srcURL.path) + '/')) {
+                throw new InvalidModificationException("Can't copy directory into itself");
+            }
+            Node existing = destParent.children.get(newName);
+            if (existing != null) {
+                if (!srcNode.isDirectory && existing.isDirectory) {
+                    throw new InvalidModificationException("Can't copy/move a file to an existing directory");
+                } else if (srcNode.isDirectory && !existing.isDirectory) {
+                    throw new InvalidModificationException("Can't copy/move a directory to an existing file");
+                } else if (existing.isDirectory && !existing.children.isEmpty()) {
+                    throw new InvalidModificationException("directory is not empty");
+                }
+            }
+
+            long replacedSize = existing == null ? 0 : existing.size();
+            if (move) {
+                findNode(parentPath(srcURL.path)).children.remove(nameOf(srcURL.path));
+                destParent.children.put(newName, srcNode);
+                usedSize -= replacedSize;
+            } else {
+                reserve(srcNode.size() - replacedSize);
+                destParent.children.put(newName, srcNode.copy());
+            }
+            isDirectory = srcNode.isDirectory;
+        }
+        return makeEntryForURL(localUrlForPath(destPath, isDirectory));
+    }
+
+    private void copyDirectoryFrom(Filesystem srcFs, LocalFilesystemURL srcURL, String destPath) throws IOException, InvalidModificationException, NoModificationAllowedException {
+        synchronized (this) {
+            Node node = findNode(destPath);
+            if (node == null) {
+                node = createNode(destPath, true);
+            }
+            if (node == null) {
+                // If we can't create the directory then fail
+                throw new NoModificationAllowedException("Couldn't create the destination directory");
+            }
+            if (!node.isDirectory) {
+                throw new InvalidModificationException("Can't copy/move a directory to an existing file");
+            }
+        }
+        LocalFilesystemURL[] children = srcFs.listChildren(srcURL);
+        if (children == null) {
+            return;
+        }
+        for (LocalFilesystemURL child : children) {
+            String childDestPath = childPath(destPath, nameOf(child.path));
+            if (child.isDirectory) {
+                copyDirectoryFrom(srcFs, child, childDestPath);
+            } else {
+                copyResource(srcFs.openForRead(child), openOutputStream(childDestPath));
+            }
+        }
+    }
+
+    @Override
+    public synchronized long getFreeSpaceInBytes() {
+        return maxSize - usedSize;
+    }
+
+    @Override
+    public boolean canRemoveFileAtLocalURL(LocalFilesystemURL inputURL) {
+        return exists(inputURL);
+    }
+}
@@ -0,0 +1,261 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.file;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts how long each action takes, how long it waited to run, how many bytes each filesystem
+ * read and wrote, and which exceptions operations failed with. Recording only updates atomic
+ * counters, so it is cheap enough to leave on.
+ *
+ * Durations are kept as histograms with fixed buckets rather than individual samples, so memory
+ * use doesn't grow with the number of operations.
+ */
+class OperationStats {
+
+    // Upper bounds of the histogram buckets, in microseconds; the last bucket has no bound
+    private static final long[] BUCKET_BOUNDS = {
+            250, 500, 1000, 2000, 5000, 10000, 20000, 50000, 100000, 200000, 500000, 1000000, 2000000, 5000000
+    };
+
+    static class Histogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_BOUNDS.length + 1);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong total = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long micros) {
+            int bucket = 0;
+            while (bucket < BUCKET_BOUNDS.length && micros > BUCKET_BOUNDS[bucket]) {
+                bucket++;
+            }
+            buckets.incrementAndGet(bucket);
+            count.incrementAndGet();
+            total.addAndGet(micros);
+            long currentMax;
+            while (micros > (currentMax = max.get()) && !max.compareAndSet(currentMax, micros)) {
+                // Another thread raised the maximum first; try again against its value.
+            }
+        }
+
+        /**
+         * Estimates a percentile as the upper bound of the bucket it falls in, or the maximum for
+         * the last bucket.
+         */
+        private long percentile(long n, double fraction) {
+            long rank = (long) Math.ceil(n * fraction);
+            long seen = 0;
+            for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return Math.min(BUCKET_BOUNDS[i], max.get());
+                }
+            }
+            return max.get();
+        }
+
+        JSONObject toJSON() throws JSONException {
+            long n = count.get();
+            JSONObject json = new JSONObject();
+            json.put("count", n);
+            json.put("meanMicros", n == 0 ? 0 : total.get() / n);
+            json.put("maxMicros", max.get());
+            json.put("p50Micros", n == 0 ? 0 : percentile(n, 0.5));
+            json.put("p90Micros", n == 0 ? 0 : percentile(n, 0.9));
+            json.put("p99Micros", n == 0 ? 0 : percentile(n, 0.99));
+            JSONArray counts = new JSONArray();
+            for (int i = 0; i < buckets.length(); i++) {
+                counts.put(buckets.get(i));
+            }
+            json.put("buckets", counts);
+            return json;
+        }
+    }
+
+    private static class ActionStats {
+        final Histogram latency = new Histogram();
+        final Histogram queueWait = new Histogram();
+        final AtomicLong errors = new AtomicLong();
+    }
+
+    private static class Throughput {
+        final AtomicLong bytesRead = new AtomicLong();
+        final AtomicLong bytesWritten = new AtomicLong();
+    }
+
+    private final ConcurrentHashMap<String, ActionStats> actions = new ConcurrentHashMap<String, ActionStats>();
+    private final ConcurrentHashMap<String, Throughput> filesystems = new ConcurrentHashMap<String, Throughput>();
+    private final ConcurrentHashMap<String, AtomicLong> errors = new ConcurrentHashMap<String, AtomicLong>();
+    private volatile long since = System.currentTimeMillis();
+
+    private ActionStats statsFor(String action) {
+        ActionStats stats = actions.get(action);
+        if (stats == null) {
+            ActionStats created = new ActionStats();
+            stats = actions.putIfAbsent(action, created);
+            if (stats == null) {
+                stats = created;
+            }
+        }
+        return stats;
+    }
+
+    private Throughput throughputFor(String filesystem) {
+        Throughput throughput = filesystems.get(filesystem);
+        if (throughput == null) {
+            Throughput created = new Throughput();
+            throughput = filesystems.putIfAbsent(filesystem, created);
+            if (throughput == null) {
+                throughput = created;
+            }
+        }
+        return throughput;
+    }
+
+    /**
+     * Records an action that has finished.
+     *
+     * @param queueWaitNanos    How long the action waited for a thread, or -1 if it didn't queue
+     * @param runNanos          How long the action ran for
+     */
+    void recordAction(String action, long queueWaitNanos, long runNanos) {
+        ActionStats stats = statsFor(action);
+        if (queueWaitNanos >= 0) {
+            stats.queueWait.record(queueWaitNanos / 1000);
+        }
+        stats.latency.record(runNanos / 1000);
+    }
+
+    /**
+     * Records an operation that failed with an exception.
+     *
+     * @param action    The action that failed, or null if it is recorded separately
+     */
+    void recordError(String action, Throwable e) {
+        if (action != null) {
+            statsFor(action).errors.incrementAndGet();
+        }
+        String type = e.getClass().getSimpleName();
+        AtomicLong count = errors.get(type);
+        if (count == null) {
+            AtomicLong created = new AtomicLong();
+            count = errors.putIfAbsent(type, created);
+            if (count == null) {
+                count = created;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    void recordRead(String filesystem, long bytes) {
+        if (bytes > 0) {
+            throughputFor(filesystem).bytesRead.addAndGet(bytes);
+        }
+    }
+
+    void recordWritten(String filesystem, long bytes) {
+        if (bytes > 0) {
+            throughputFor(filesystem).bytesWritten.addAndGet(bytes);
+        }
+    }
+
+    /**
+     * Wraps a stream that is read outside of any action, such as a response of the path handler,
+     * to count the bytes read from it as they are read.
+     */
+    InputStream countReads(final String filesystem, InputStream inputStream) {
+        final Throughput throughput = throughputFor(filesystem);
+        return new FilterInputStream(inputStream) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    throughput.bytesRead.incrementAndGet();
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int count) throws IOException {
+                int bytesRead = super.read(buffer, offset, count);
+                if (bytesRead > 0) {
+                    throughput.bytesRead.addAndGet(bytesRead);
+                }
+                return bytesRead;
+            }
+        };
+    }
+
+    /**
+     * Starts counting again from zero.
+     */
+    void reset() {
+        actions.clear();
+        filesystems.clear();
+        errors.clear();
+        since = System.currentTimeMillis();
+    }
+
+    JSONObject toJSON() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("since", since);
+        JSONArray bounds = new JSONArray();
+        for (long bound : BUCKET_BOUNDS) {
+            bounds.put(bound);
+        }
+        json.put("bucketBoundsMicros", bounds);
+
+        JSONObject actionsJSON = new JSONObject();
+        for (Map.Entry<String, ActionStats> entry : actions.entrySet()) {
+            JSONObject action = new JSONObject();
+            action.put("latency", entry.getValue().latency.toJSON());
+            action.put("queueWait", entry.getValue().queueWait.toJSON());
+            action.put("errors", entry.getValue().errors.get());
+            actionsJSON.put(entry.getKey(), action);
+        }
+        json.put("actions", actionsJSON);
+
+        JSONObject filesystemsJSON = new JSONObject();
+        for (Map.Entry<String, Throughput> entry : filesystems.entrySet()) {
+            JSONObject filesystem = new JSONObject();
+            filesystem.put("bytesRead", entry.getValue().bytesRead.get());
+            filesystem.put("bytesWritten", entry.getValue().bytesWritten.get());
+            filesystemsJSON.put(entry.getKey(), filesystem);
+        }
+        json.put("filesystems", filesystemsJSON);
+
+        JSONObject errorsJSON = new JSONObject();
+        for (Map.Entry<String, AtomicLong> entry : errors.entrySet()) {
+            errorsJSON.put(entry.getKey(), entry.getValue().get());
+        }
+        json.put("errors", errorsJSON);
+        return json;
+    }
+}
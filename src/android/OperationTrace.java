@@ -0,0 +1,222 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.file;
+
+import android.os.Build;
+import android.os.Trace;
+
+import org.apache.cordova.LOG;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Marks file operations and the phases within them (resolving the URL, checking permissions,
+ * opening, reading, encoding and sending the result) as android.os.Trace sections, so that they
+ * show up in system traces. The time from queueing an operation to its end is also marked as an
+ * async section. Operations that take longer than a threshold are logged with the time spent in
+ * each phase.
+ *
+ * Both are off by default. While they are, {@link #queue(String)} returns null and the static
+ * methods do nothing, so code can mark phases unconditionally.
+ */
+class OperationTrace {
+
+    private static final String LOG_TAG = "FileOperation";
+
+    private static volatile boolean tracing;
+    private static volatile long slowThresholdNanos;
+    private static volatile boolean enabled;
+
+    private static final AtomicInteger nextCookie = new AtomicInteger();
+    private static final ThreadLocal<OperationTrace> current = new ThreadLocal<OperationTrace>();
+
+    private final String action;
+    private final int cookie;
+    private final long queuedAt;
+    private long startedAt = -1;
+    // The operation this one runs inside of, such as the batch of a batch step
+    private OperationTrace outer;
+    private String phase;
+    private long phaseStartedAt;
+    private final LinkedHashMap<String, Long> phaseNanos = new LinkedHashMap<String, Long>();
+    private String url;
+    private String filesystem;
+
+    private OperationTrace(String action) {
+        this.action = action;
+        this.cookie = nextCookie.incrementAndGet();
+        this.queuedAt = System.nanoTime();
+    }
+
+    /**
+     * @param traceSections     Whether to emit android.os.Trace sections
+     * @param slowThresholdMs   Operations that take at least this long are logged, or 0 to log none
+     */
+    static void configure(boolean traceSections, long slowThresholdMs) {
+        tracing = traceSections;
+        slowThresholdNanos = Math.max(0, slowThresholdMs) * 1000000L;
+        enabled = tracing || slowThresholdNanos > 0;
+    }
+
+    /**
+     * Called when an operation is queued, before it runs.
+     *
+     * @return  The trace of the operation, or null if tracing is off
+     */
+    static OperationTrace queue(String action) {
+        if (!enabled) {
+            return null;
+        }
+        OperationTrace trace = new OperationTrace(action);
+        if (tracing && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.beginAsyncSection(trace.sectionName(), trace.cookie);
+        }
+        return trace;
+    }
+
+    /**
+     * Called on the thread that runs an operation, when it starts running.
+     */
+    void start() {
+        startedAt = System.nanoTime();
+        outer = current.get();
+        current.set(this);
+        if (tracing) {
+            Trace.beginSection(sectionName());
+        }
+        switchPhase("run");
+    }
+
+    /**
+     * Called on the thread that ran an operation, when it is finished.
+     */
+    void finish() {
+        long finishedAt = System.nanoTime();
+        switchPhase(null);
+        if (tracing) {
+            Trace.endSection();
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                Trace.endAsyncSection(sectionName(), cookie);
+            }
+        }
+        if (outer != null) {
+            current.set(outer);
+        } else {
+            current.remove();
+        }
+        if (slowThresholdNanos > 0 && finishedAt - queuedAt >= slowThresholdNanos) {
+            logSlow(finishedAt);
+        }
+    }
+
+    /**
+     * Called instead of {@link #start()} when an operation that was queued will never run.
+     */
+    void cancel() {
+        if (tracing && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.endAsyncSection(sectionName(), cookie);
+        }
+    }
+
+    private String sectionName() {
+        return "File." + action;
+    }
+
+    private void switchPhase(String name) {
+        long now = System.nanoTime();
+        if (phase != null) {
+            Long spent = phaseNanos.get(phase);
+            phaseNanos.put(phase, (spent == null ? 0 : spent) + now - phaseStartedAt);
+            if (tracing) {
+                Trace.endSection();
+            }
+        }
+        phase = name;
+        phaseStartedAt = now;
+        if (name != null && tracing) {
+            Trace.beginSection(name);
+        }
+    }
+
+    private void logSlow(long finishedAt) {
+        StringBuilder message = new StringBuilder("Slow ").append(action)
+                .append(": ").append((finishedAt - queuedAt) / 1000000).append(" ms");
+        if (filesystem != null) {
+            message.append(" on ").append(filesystem);
+        }
+        if (url != null) {
+            message.append(" (").append(url).append(')');
+        }
+        message.append("; queued ").append((startedAt - queuedAt) / 1000000).append(" ms");
+        for (Map.Entry<String, Long> entry : phaseNanos.entrySet()) {
+            message.append(", ").append(entry.getKey()).append(' ').append(entry.getValue() / 1000000).append(" ms");
+        }
+        LOG.w(LOG_TAG, message.toString());
+    }
+
+    /**
+     * Marks the start of a phase of the operation running on the current thread, which lasts
+     * until the next phase starts.
+     *
+     * @return  The phase that was running, to be restored when a nested phase ends
+     */
+    static String phase(String name) {
+        if (!enabled) {
+            return null;
+        }
+        OperationTrace trace = current.get();
+        if (trace == null) {
+            return null;
+        }
+        String previous = trace.phase;
+        trace.switchPhase(name);
+        return previous;
+    }
+
+    /**
+     * Ends a nested phase started with {@link #phase(String)}, continuing the phase it returned.
+     */
+    static void restorePhase(String previous) {
+        if (previous != null) {
+            phase(previous);
+        }
+    }
+
+    /**
+     * Records the URL and filesystem the operation on the current thread works on, to be logged
+     * if it is slow. The first of each recorded is kept.
+     */
+    static void describe(String url, String filesystem) {
+        if (!enabled) {
+            return;
+        }
+        OperationTrace trace = current.get();
+        if (trace == null) {
+            return;
+        }
+        if (trace.url == null) {
+            trace.url = url;
+        }
+        if (trace.filesystem == null) {
+            trace.filesystem = filesystem;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.file;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Tracks the reads and writes that FileReader and FileWriter can abort, by the operation ID they
+ * send with each request. Aborting doesn't interrupt the thread, since that would close channels
+ * shared with other operations; instead the operation checks {@link #throwIfAborted()} between
+ * steps and gives up at the next one.
+ */
+class Operations {
+
+    // Operations aborted before they started are remembered for this long, in case they never do
+    private static final int MAX_EARLY_ABORTS = 64;
+
+    static class Operation {
+        final String id;
+        volatile boolean aborted;
+
+        private Operation(String id) {
+            this.id = id;
+        }
+    }
+
+    private final HashMap<String, Operation> running = new HashMap<String, Operation>();
+    private final LinkedHashMap<String, Boolean> abortedEarly = new LinkedHashMap<String, Boolean>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_EARLY_ABORTS;
+        }
+    };
+    private final ThreadLocal<Operation> current = new ThreadLocal<Operation>();
+
+    /**
+     * Marks the start of an operation on the current thread.
+     *
+     * @param id    The operation ID, or null if the request can't be aborted
+     * @throws OperationAbortedException if the operation was aborted while it was queued
+     */
+    synchronized void begin(String id) throws OperationAbortedException {
+        if (id == null) {
+            return;
+        }
+        if (abortedEarly.remove(id) != null) {
+            throw new OperationAbortedException("Operation " + id + " was aborted");
+        }
+        Operation operation = new Operation(id);
+        running.put(id, operation);
+        current.set(operation);
+    }
+
+    /**
+     * Marks the end of the operation running on the current thread, if any.
+     */
+    synchronized void end() {
+        Operation operation = current.get();
+        if (operation != null) {
+            running.remove(operation.id);
+            current.remove();
+        }
+    }
+
+    /**
+     * Asks an operation to stop. If it hasn't started yet, it won't.
+     */
+    synchronized void abort(String id) {
+        Operation operation = running.get(id);
+        if (operation != null) {
+            operation.aborted = true;
+        } else {
+            abortedEarly.put(id, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Called by operations between steps, to stop if they have been aborted.
+     */
+    void throwIfAborted() throws OperationAbortedException {
+        Operation operation = current.get();
+        if (operation != null && operation.aborted) {
+            throw new OperationAbortedException("Operation " + operation.id + " was aborted");
+        }
+    }
+}
@@ -0,0 +1,506 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.file;
+
+import android.content.Context;
+import android.net.Uri;
+
+import org.apache.cordova.CordovaPreferences;
+import org.apache.cordova.CordovaResourceApi;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A writable view of a directory of assets. Reads are served from a writable directory (the upper
+ * layer) if the file has been changed, and from the assets (the lower layer) otherwise, so the
+ * assets never need to be copied up front.
+ *
+ * A file is copied to the upper layer the first time it is written to. Removing something that
+ * exists in the assets leaves a whiteout marker (".wh.name") next to where it would be in the
+ * upper layer, and a directory created in place of a removed one is marked opaque (".opq.name") so
+ * that the removed contents don't reappear. Names with these prefixes can't be used for files.
+ */
+public class OverlayFilesystem extends Filesystem {
+
+    private static final String WHITEOUT_PREFIX = ".wh.";
+    private static final String OPAQUE_PREFIX = ".opq.";
+
+    private final AssetFilesystem lower;
+    private final String lowerRoot;
+    private final File upperRoot;
+    private final LocalFilesystem upper;
+
+    /**
+     * @param lowerRoot     The asset directory to expose, e.g. "www/content"
+     * @param upperRoot     The directory that holds changed files and whiteouts
+     */
+    public OverlayFilesystem(String name, Context context, AssetFilesystem lower, String lowerRoot, File upperRoot,
+                             CordovaResourceApi resourceApi, CordovaPreferences preferences) {
+        super(Uri.fromFile(upperRoot).buildUpon().appendEncodedPath("").build(), name, resourceApi, preferences);
+        this.lower = lower;
+        this.lowerRoot = lowerRoot.replaceAll("^/+|/+$", "");
+        this.upperRoot = upperRoot;
+        // Shares this filesystem's name, so its URLs are interchangeable with ours.
+        this.upper = new LocalFilesystem(name, context, resourceApi, upperRoot, preferences);
+    }
+
+    private static boolean isReservedName(String name) {
+        return name.startsWith(WHITEOUT_PREFIX) || name.startsWith(OPAQUE_PREFIX);
+    }
+
+    private static boolean containsReservedName(String fullPath) {
+        for (String component : fullPath.split("/+")) {
+            if (isReservedName(component)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static File whiteoutFile(File upperFile) {
+        return new File(upperFile.getParentFile(), WHITEOUT_PREFIX + upperFile.getName());
+    }
+
+    private static File opaqueFile(File upperFile) {
+        return new File(upperFile.getParentFile(), OPAQUE_PREFIX + upperFile.getName());
+    }
+
+    private File upperFile(String fullPath) {
+        return new File(upperRoot, fullPath);
+    }
+
+    private String lowerPath(String fullPath) {
+        String path = normalizePath("/" + fullPath).replaceAll("^/+", "");
+        if (lowerRoot.isEmpty()) {
+            return path;
+        }
+        return path.isEmpty() ? lowerRoot : lowerRoot + '/' + path;
+    }
+
+    /**
+     * Whether the assets are visible at the given path, i.e. neither it nor any of its parents has
+     * been removed, replaced by a file, or replaced by a new directory.
+     */
+    private boolean lowerVisible(String fullPath) {
+        File file = upperRoot;
+        String[] components = normalizePath("/" + fullPath).split("/+");
+        for (int i = 0; i < components.length; i++) {
+            if (components[i].isEmpty()) {
+                continue;
+            }
+            file = new File(file, components[i]);
+            if (whiteoutFile(file).exists() || opaqueFile(file).exists()) {
+                return false;
+            }
+            if (i < components.length - 1 && file.isFile()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean lowerIsDirectory(String fullPath) {
+        String lowerPath = lowerPath(fullPath);
+        return lowerPath.isEmpty() || lower.isDirectory(lowerPath);
+    }
+
+    private boolean lowerExists(String fullPath) {
+        return lowerVisible(fullPath) && (lowerIsDirectory(fullPath) || lower.assetExists(lowerPath(fullPath)));
+    }
+
+    private boolean isDirectory(String fullPath) {
+        File fp = upperFile(fullPath);
+        return fp.exists() ? fp.isDirectory() : lowerExists(fullPath) && lowerIsDirectory(fullPath);
+    }
+
+    private static String parentPath(String fullPath) {
+        String path = normalizePath("/" + fullPath);
+        int lastSlash = path.lastIndexOf('/');
+        return lastSlash <= 0 ? "/" : path.substring(0, lastSlash);
+    }
+
+    /**
+     * Makes room for a new file or directory in the upper layer: creates any parent directories
+     * that so far only exist in the assets, and clears a whiteout left at the path.
+     *
+     * @return  false if the parent directory doesn't exist
+     */
+    private boolean prepareUpper(String fullPath, boolean directory) throws IOException {
+        String parentPath = parentPath(fullPath);
+        if (!upperFile(parentPath).isDirectory() && !(lowerExists(parentPath) && lowerIsDirectory(parentPath))) {
+            return false;
+        }
+        File fp = upperFile(fullPath);
+        fp.getParentFile().mkdirs();
+        File whiteout = whiteoutFile(fp);
+        if (whiteout.exists()) {
+            whiteout.delete();
+            if (directory) {
+                // Keep the contents of the removed directory hidden.
+                opaqueFile(fp).createNewFile();
+            }
+        }
+        return true;
+    }
+
+    private void recordRemoval(String fullPath) throws NoModificationAllowedException {
+        File fp = upperFile(fullPath);
+        opaqueFile(fp).delete();
+        try {
+            fp.getParentFile().mkdirs();
+            if (!whiteoutFile(fp).createNewFile() && !whiteoutFile(fp).exists()) {
+                throw new IOException();
+            }
+        } catch (IOException e) {
+            throw new NoModificationAllowedException("Couldn't record the removal of " + fullPath);
+        }
+    }
+
+    /**
+     * Copies a file from the assets to the upper layer before it is modified.
+     *
+     * @param keepContents  false if the caller is about to replace the contents anyway
+     */
+    private void copyUp(String fullPath, boolean keepContents) throws IOException {
+        File fp = upperFile(fullPath);
+        if (fp.exists()) {
+            return;
+        }
+        boolean inLower = lowerExists(fullPath);
+        if (!prepareUpper(fullPath, false)) {
+            throw new FileNotFoundException("The parent directory of " + fullPath + " does not exist.");
+        }
+        if (inLower && keepContents) {
+            copyResource(openLower(fullPath), new FileOutputStream(fp));
+        }
+    }
+
+    private CordovaResourceApi.OpenForReadResult openLower(String fullPath) throws IOException {
+        return resourceApi.openForRead(lower.nativeUriForFullPath(lowerPath(fullPath)));
+    }
+
+    @Override
+    public Uri toNativeUri(LocalFilesystemURL inputURL) {
+        if (!upperFile(inputURL.path).exists() && lowerExists(inputURL.path)) {
+            return lower.nativeUriForFullPath(lowerPath(inputURL.path));
+        }
+        return upper.toNativeUri(inputURL);
+    }
+
+    @Override
+    public LocalFilesystemURL toLocalUri(Uri inputURL) {
+        return upper.toLocalUri(inputURL);
+    }
+
+    @Override
+    public LocalFilesystemURL URLforFilesystemPath(String path) {
+        return upper.URLforFilesystemPath(path);
+    }
+
+    @Override
+    public String filesystemPathForURL(LocalFilesystemURL url) {
+        // Paths that are backed by assets can't be handled as plain files (e.g. moved by renaming).
+        return lowerExists(url.path) ? null : upper.filesystemPathForURL(url);
+    }
+
+    @Override
+    public JSONObject getFileForLocalURL(LocalFilesystemURL inputURL,
+            String path, JSONObject options, boolean directory) throws FileExistsException, IOException, TypeMismatchException, EncodingException, JSONException {
+        boolean create = false;
+        boolean exclusive = false;
+
+        if (options != null) {
+            create = options.optBoolean("create");
+            if (create) {
+                exclusive = options.optBoolean("exclusive");
+            }
+        }
+
+        // Check for a ":" character in the file to line up with BB and iOS
+        if (path.contains(":")) {
+            throw new EncodingException("This path has an invalid \":\" in it.");
+        }
+
+        String fullPath;
+        if (path.startsWith("/")) {
+            fullPath = normalizePath(path);
+        } else {
+            fullPath = normalizePath(inputURL.path + "/" + path);
+        }
+        if (containsReservedName(fullPath)) {
+            throw new EncodingException("This path uses a name reserved by the overlay filesystem.");
+        }
+
+        boolean exists = exists(fullPath);
+        boolean isDir = exists && isDirectory(fullPath);
+        if (create) {
+            if (exclusive && exists) {
+                throw new FileExistsException("create/exclusive fails");
+            }
+            if (!exists) {
+                File fp = upperFile(fullPath);
+                if (prepareUpper(fullPath, directory)) {
+                    if (directory) {
+                        fp.mkdir();
+                    } else {
+                        fp.createNewFile();
+                    }
+                }
+                if (!fp.exists()) {
+                    throw new FileExistsException("create fails");
+                }
+                isDir = directory;
+            }
+        } else {
+            if (!exists) {
+                throw new FileNotFoundException("path does not exist");
+            }
+            if (directory && !isDir) {
+                throw new TypeMismatchException("path doesn't exist or is file");
+            } else if (!directory && isDir) {
+                throw new TypeMismatchException("path doesn't exist or is directory");
+            }
+        }
+
+        return makeEntryForURL(localUrlForPath(fullPath, isDir));
+    }
+
+    private boolean exists(String fullPath) {
+        return upperFile(fullPath).exists() || lowerExists(fullPath);
+    }
+
+    @Override
+    public boolean exists(LocalFilesystemURL inputURL) {
+        return exists(inputURL.path);
+    }
+
+    @Override
+    public boolean removeFileAtLocalURL(LocalFilesystemURL inputURL) throws InvalidModificationException, NoModificationAllowedException {
+        String fullPath = inputURL.path;
+        File fp = upperFile(fullPath);
+        boolean inLower = lowerExists(fullPath);
+        if ("/".equals(normalizePath("/" + fullPath)) || (!fp.exists() && !inLower)) {
+            return false;
+        }
+
+        // You can't delete a directory that is not empty
+        try {
+            LocalFilesystemURL[] children = listChildren(inputURL);
+            if (children != null && children.length > 0) {
+                throw new InvalidModificationException("You can't delete a directory that is not empty.");
+            }
+        } catch (FileNotFoundException e) {
+            return false;
+        }
+
+        if (fp.exists() && !fp.delete()) {
+            return false;
+        }
+        if (inLower) {
+            recordRemoval(fullPath);
+        } else {
+            opaqueFile(fp).delete();
+        }
+        return true;
+    }
+
+    @Override
+    public boolean recursiveRemoveFileAtLocalURL(LocalFilesystemURL inputURL) throws FileExistsException, NoModificationAllowedException {
+        String fullPath = inputURL.path;
+        File fp = upperFile(fullPath);
+        boolean inLower = lowerExists(fullPath);
+        if ("/".equals(normalizePath("/" + fullPath)) || (!fp.exists() && !inLower)) {
+            throw new FileExistsException("could not delete: " + fp.getName());
+        }
+
+        if (fp.exists()) {
+            upper.removeDirRecursively(fp);
+        }
+        if (inLower) {
+            recordRemoval(fullPath);
+        } else {
+            opaqueFile(fp).delete();
+        }
+        return true;
+    }
+
+    @Override
+    public LocalFilesystemURL[] listChildren(LocalFilesystemURL inputURL) throws FileNotFoundException {
+        String fullPath = inputURL.path;
+        File fp = upperFile(fullPath);
+        boolean inLower = lowerExists(fullPath);
+        if (!fp.exists() && !inLower) {
+            // The directory we are listing doesn't exist so we should fail.
+            throw new FileNotFoundException();
+        }
+        if (!isDirectory(fullPath)) {
+            return null;
+        }
+
+        TreeMap<String, Boolean> children = new TreeMap<String, Boolean>();
+        File[] upperChildren = fp.listFiles();
+        if (upperChildren != null) {
+            for (File child : upperChildren) {
+                if (!isReservedName(child.getName())) {
+                    children.put(child.getName(), child.isDirectory());
+                }
+            }
+        }
+        if (inLower && lowerIsDirectory(fullPath)) {
+            String lowerPath = lowerPath(fullPath);
+            String[] lowerChildren;
+            try {
+                lowerChildren = lower.listAssets(lowerPath);
+            } catch (IOException e) {
+                lowerChildren = new String[0];
+            }
+            for (String childName : lowerChildren) {
+                if (!children.containsKey(childName) && !whiteoutFile(new File(fp, childName)).exists()) {
+                    children.put(childName, lower.isDirectory(lowerPath.isEmpty() ? childName : lowerPath + '/' + childName));
+                }
+            }
+        }
+
+        String prefix = fullPath.endsWith("/") ? fullPath : fullPath + '/';
+        LocalFilesystemURL[] entries = new LocalFilesystemURL[children.size()];
+        int i = 0;
+        for (Map.Entry<String, Boolean> child : children.entrySet()) {
+            entries[i++] = localUrlForPath(prefix + child.getKey(), child.getValue());
+        }
+        return entries;
+    }
+
+    @Override
+    public JSONObject getFileMetadataForLocalURL(LocalFilesystemURL inputURL) throws FileNotFoundException {
+        if (upperFile(inputURL.path).exists()) {
+            return upper.getFileMetadataForLocalURL(inputURL);
+        }
+        if (!lowerExists(inputURL.path)) {
+            throw new FileNotFoundException("File at " + inputURL.uri + " does not exist.");
+        }
+
+        boolean isDirectory = lowerIsDirectory(inputURL.path);
+        JSONObject metadata = new JSONObject();
+        try {
+            metadata.put("size", isDirectory ? 0 : lower.getAssetSize(lowerPath(inputURL.path)));
+            metadata.put("type", isDirectory ? null : resourceApi.getMimeType(Uri.fromFile(new File(inputURL.path))));
+            metadata.put("name", new File(inputURL.path).getName());
+            metadata.put("fullPath", inputURL.path);
+            metadata.put("lastModifiedDate", 0);
+        } catch (JSONException e) {
+            return null;
+        }
+        return metadata;
+    }
+
+    @Override
+    public CordovaResourceApi.OpenForReadResult openForRead(LocalFilesystemURL inputURL) throws IOException {
+        if (!upperFile(inputURL.path).exists() && lowerExists(inputURL.path)) {
+            return openLower(inputURL.path);
+        }
+        return upper.openForRead(inputURL);
+    }
+
+    @Override
+    public OutputStream getOutputStreamForURL(LocalFilesystemURL inputURL) throws IOException {
+        copyUp(inputURL.path, false);
+        return upper.getOutputStreamForURL(inputURL);
+    }
+
+    @Override
+    public long writeToFileAtURL(LocalFilesystemURL inputURL, String data,
+            int offset, boolean isBinary) throws IOException, NoModificationAllowedException {
+        // A write replaces everything from the offset onwards, so only what precedes it is needed.
+        copyUp(inputURL.path, offset > 0);
+        return upper.writeToFileAtURL(inputURL, data, offset, isBinary);
+    }
+
+    @Override
+    public long truncateFileAtURL(LocalFilesystemURL inputURL, long size) throws IOException {
+        if (!exists(inputURL.path)) {
+            throw new FileNotFoundException("File at " + inputURL.uri + " does not exist.");
+        }
+        copyUp(inputURL.path, size > 0);
+        return upper.truncateFileAtURL(inputURL, size);
+    }
+
+    @Override
+    public JSONObject copyFileToURL(LocalFilesystemURL destURL, String newName,
+            Filesystem srcFs, LocalFilesystemURL srcURL, boolean move) throws IOException, InvalidModificationException, JSONException, NoModificationAllowedException, FileExistsException {
+        if (!exists(destURL.path)) {
+            // The destination does not exist so we should fail.
+            throw new FileNotFoundException("The source does not exist");
+        }
+        LocalFilesystemURL destination = makeDestinationURL(newName, srcURL, destURL, srcURL.isDirectory);
+        String destPath = normalizePath(destination.path);
+        if (containsReservedName(destPath)) {
+            throw new InvalidModificationException("The destination uses a name reserved by the overlay filesystem.");
+        }
+        if (srcFs == this && destPath.equals(normalizePath(srcURL.path))) {
+            throw new InvalidModificationException("Can't copy onto itself");
+        }
+        if (srcFs == this && srcURL.isDirectory && destPath.startsWith(normalizePath(srcURL.path) + '/')) {
+            throw new InvalidModificationException("Can't copy directory into itself");
+        }
+
+        // The local layer only sees its own files, so check against the assets too.
+        if (exists(destPath)) {
+            boolean destIsDirectory = isDirectory(destPath);
+            if (!srcURL.isDirectory && destIsDirectory) {
+                throw new InvalidModificationException("Can't copy/move a file to an existing directory");
+            } else if (srcURL.isDirectory && !destIsDirectory) {
+                throw new InvalidModificationException("Can't copy/move a directory to an existing file");
+            } else if (srcURL.isDirectory) {
+                LocalFilesystemURL[] children = listChildren(destination);
+                if (children != null && children.length > 0) {
+                    throw new InvalidModificationException("directory is not empty");
+                }
+            }
+        }
+        if (!prepareUpper(destPath, srcURL.isDirectory)) {
+            throw new FileNotFoundException("The source does not exist");
+        }
+
+        File srcUpper = upperFile(srcURL.path);
+        JSONObject entry = upper.copyFileToURL(destURL, newName, srcFs, srcURL, move);
+        if (move && srcFs == this && opaqueFile(srcUpper).exists()) {
+            // The directory was moved away by renaming it, which would uncover the assets it replaced.
+            recordRemoval(srcURL.path);
+        }
+        return entry;
+    }
+
+    @Override
+    public long getFreeSpaceInBytes() {
+        return upper.getFreeSpaceInBytes();
+    }
+
+    @Override
+    public boolean canRemoveFileAtLocalURL(LocalFilesystemURL inputURL) {
+        return exists(inputURL);
+    }
+}
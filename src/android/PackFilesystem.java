@@ -0,0 +1,1012 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.file;
+
+import android.net.Uri;
+import android.util.Base64;
+
+import org.apache.cordova.CordovaPreferences;
+import org.apache.cordova.CordovaResourceApi;
+import org.apache.cordova.LOG;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+
+/**
+ * A filesystem for large numbers of small files, which stores their contents back to back in a
+ * single data file instead of one file each. This avoids the per-file overhead of the underlying
+ * filesystem, and removing a directory takes the same time however many files it holds.
+ *
+ * Contents are only ever appended to the data file. Every change is recorded in an index journal,
+ * which is replayed into an in-memory tree when the filesystem is opened. Once enough of the data
+ * file is no longer referenced, both files are rewritten in the background with only the live
+ * contents, under the next generation number.
+ */
+public class PackFilesystem extends Filesystem implements Closeable {
+
+    private static final String LOG_TAG = "PackFilesystem";
+
+    private static final int INDEX_MAGIC = 0x4344504b;
+
+    private static final byte RECORD_FILE = 1;
+    private static final byte RECORD_DIRECTORY = 2;
+    private static final byte RECORD_REMOVE = 3;
+    private static final byte RECORD_MOVE = 4;
+
+    // Don't bother compacting until at least this much of the data file is unreferenced
+    private static final long MIN_COMPACTION_GARBAGE = 1024 * 1024;
+    private static final int MIN_COMPACTION_RECORDS = 10000;
+
+    private static class Node {
+        final boolean isDirectory;
+        final TreeMap<String, Node> children;
+        // The contents are the length bytes at offset in the data file
+        long offset;
+        long length;
+        long lastModified;
+
+        Node(boolean isDirectory, long lastModified) {
+            this.isDirectory = isDirectory;
+            this.children = isDirectory ? new TreeMap<String, Node>() : null;
+            this.lastModified = lastModified;
+        }
+
+        long size() {
+            if (!isDirectory) {
+                return length;
+            }
+            long size = 0;
+            for (Node child : children.values()) {
+                size += child.size();
+            }
+            return size;
+        }
+
+        int count() {
+            int count = 1;
+            if (isDirectory) {
+                for (Node child : children.values()) {
+                    count += child.count();
+                }
+            }
+            return count;
+        }
+    }
+
+    private final File directory;
+    private final ExecutorService compactionExecutor = Executors.newSingleThreadExecutor();
+
+    private final Node root = new Node(true, System.currentTimeMillis());
+    private int generation;
+    private RandomAccessFile dataFile;
+    private FileChannel dataChannel;
+    private long dataSize;
+    private FileOutputStream indexStream;
+    private int indexRecords;
+    private int nodeCount = 1;
+    // Files that share their contents are counted more than once, so this can overestimate.
+    private long liveSize;
+    private boolean compactionScheduled;
+    private boolean closed;
+
+    public PackFilesystem(String name, File directory, CordovaResourceApi resourceApi, CordovaPreferences preferences) throws IOException {
+        super(createLocalUriBuilder(name, preferences).appendEncodedPath("").build(), name, resourceApi, preferences);
+        this.directory = directory;
+        directory.mkdirs();
+        open();
+    }
+
+    private File dataFileFor(int generation) {
+        return new File(directory, "pack-" + generation + ".dat");
+    }
+
+    private File indexFileFor(int generation) {
+        return new File(directory, "pack-" + generation + ".idx");
+    }
+
+    private static int generationOf(String fileName) {
+        if (!fileName.startsWith("pack-") || !fileName.endsWith(".idx")) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(fileName.substring(5, fileName.length() - 4));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Opens the newest complete generation, discarding anything left over from an interrupted
+     * compaction.
+     */
+    private void open() throws IOException {
+        String[] fileNames = directory.list();
+        generation = 0;
+        if (fileNames != null) {
+            for (String fileName : fileNames) {
+                generation = Math.max(generation, generationOf(fileName));
+            }
+            for (String fileName : fileNames) {
+                if (!fileName.equals(dataFileFor(generation).getName()) && !fileName.equals(indexFileFor(generation).getName())) {
+                    new File(directory, fileName).delete();
+                }
+            }
+        }
+
+        dataFile = new RandomAccessFile(dataFileFor(generation), "rw");
+        dataChannel = dataFile.getChannel();
+        dataSize = dataChannel.size();
+
+        File indexFile = indexFileFor(generation);
+        long validLength = indexFile.exists() ? replayIndex(indexFile) : 0;
+        if (validLength == 0) {
+            DataOutputStream header = new DataOutputStream(new FileOutputStream(indexFile));
+            try {
+                header.writeInt(INDEX_MAGIC);
+            } finally {
+                header.close();
+            }
+        } else if (validLength < indexFile.length()) {
+            // Drop a record that was cut short when the app was killed.
+            LOG.w(LOG_TAG, "Discarding a damaged record at the end of " + indexFile);
+            RandomAccessFile truncated = new RandomAccessFile(indexFile, "rw");
+            try {
+                truncated.setLength(validLength);
+            } finally {
+                truncated.close();
+            }
+        }
+        indexStream = new FileOutputStream(indexFile, true);
+    }
+
+    /**
+     * Rebuilds the tree from the records in the index.
+     *
+     * @return  The length of the index up to the last intact record, or 0 if it has no valid header
+     */
+    private long replayIndex(File indexFile) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+        try {
+            if (in.readInt() != INDEX_MAGIC) {
+                return 0;
+            }
+            long position = 4;
+            CRC32 crc = new CRC32();
+            while (true) {
+                byte[] record;
+                try {
+                    int recordLength = in.readInt();
+                    if (recordLength <= 0 || recordLength > indexFile.length() - position) {
+                        return position;
+                    }
+                    record = new byte[recordLength];
+                    in.readFully(record);
+                    crc.reset();
+                    crc.update(record);
+                    if (in.readInt() != (int) crc.getValue()) {
+                        return position;
+                    }
+                } catch (EOFException e) {
+                    return position;
+                }
+                applyRecord(new DataInputStream(new ByteArrayInputStream(record)));
+                position += 8 + record.length;
+                indexRecords++;
+            }
+        } catch (EOFException e) {
+            return 0;
+        } finally {
+            in.close();
+        }
+    }
+
+    private void applyRecord(DataInputStream record) throws IOException {
+        byte type = record.readByte();
+        String path = record.readUTF();
+        switch (type) {
+            case RECORD_FILE: {
+                long offset = record.readLong();
+                long length = record.readLong();
+                long lastModified = record.readLong();
+                // The contents may not have reached storage if the device lost power.
+                if (offset + length <= dataSize) {
+                    applyFile(path, offset, length, lastModified);
+                }
+                break;
+            }
+            case RECORD_DIRECTORY:
+                applyDirectory(path, record.readLong());
+                break;
+            case RECORD_REMOVE:
+                applyRemove(path);
+                break;
+            case RECORD_MOVE:
+                applyMove(path, record.readUTF(), record.readLong());
+                break;
+            default:
+                throw new IOException("Unknown record type " + type + " in pack index");
+        }
+    }
+
+    private static String nameOf(String fullPath) {
+        String[] components = fullPath.split("/+");
+        return components.length == 0 ? "" : components[components.length - 1];
+    }
+
+    private static String parentPath(String fullPath) {
+        String path = fullPath.endsWith("/") ? fullPath.substring(0, fullPath.length() - 1) : fullPath;
+        int lastSlash = path.lastIndexOf('/');
+        return lastSlash <= 0 ? "/" : path.substring(0, lastSlash);
+    }
+
+    private static String childPath(String parentPath, String childName) {
+        return (parentPath.endsWith("/") ? parentPath : parentPath + '/') + childName;
+    }
+
+    // All of the following must be called while holding the lock on this filesystem.
+
+    private Node findNode(String fullPath) {
+        Node node = root;
+        for (String component : fullPath.split("/+")) {
+            if (component.isEmpty()) {
+                continue;
+            }
+            if (!node.isDirectory) {
+                return null;
+            }
+            node = node.children.get(component);
+            if (node == null) {
+                return null;
+            }
+        }
+        return node;
+    }
+
+    private Node findParent(String fullPath) {
+        Node parent = findNode(parentPath(fullPath));
+        return parent != null && parent.isDirectory && !nameOf(fullPath).isEmpty() ? parent : null;
+    }
+
+    private void attach(Node parent, String childName, Node node) {
+        Node replaced = parent.children.put(childName, node);
+        if (replaced != null) {
+            detached(replaced);
+        }
+        nodeCount += node.count();
+        liveSize += node.size();
+        parent.lastModified = node.lastModified;
+    }
+
+    private void detached(Node node) {
+        nodeCount -= node.count();
+        liveSize -= node.size();
+    }
+
+    private void applyFile(String fullPath, long offset, long length, long lastModified) {
+        Node parent = findParent(fullPath);
+        if (parent == null) {
+            return;
+        }
+        Node node = new Node(false, lastModified);
+        node.offset = offset;
+        node.length = length;
+        attach(parent, nameOf(fullPath), node);
+    }
+
+    private void applyDirectory(String fullPath, long lastModified) {
+        Node parent = findParent(fullPath);
+        if (parent == null) {
+            return;
+        }
+        Node existing = parent.children.get(nameOf(fullPath));
+        if (existing == null || !existing.isDirectory) {
+            attach(parent, nameOf(fullPath), new Node(true, lastModified));
+        }
+    }
+
+    private void applyRemove(String fullPath) {
+        Node parent = findParent(fullPath);
+        Node node = parent == null ? null : parent.children.remove(nameOf(fullPath));
+        if (node != null) {
+            detached(node);
+        }
+    }
+
+    private void applyMove(String srcPath, String destPath, long lastModified) {
+        Node srcParent = findParent(srcPath);
+        Node destParent = findParent(destPath);
+        if (srcParent == null || destParent == null) {
+            return;
+        }
+        Node node = srcParent.children.remove(nameOf(srcPath));
+        if (node != null) {
+            detached(node);
+            srcParent.lastModified = lastModified;
+            attach(destParent, nameOf(destPath), node);
+        }
+    }
+
+    private void appendRecord(byte type, String path, Object... fields) throws IOException {
+        if (closed) {
+            throw new IOException("The pack filesystem has been closed");
+        }
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(record);
+        out.writeByte(type);
+        out.writeUTF(path);
+        for (Object field : fields) {
+            if (field instanceof String) {
+                out.writeUTF((String) field);
+            } else {
+                out.writeLong((Long) field);
+            }
+        }
+        writeRecord(indexStream, record.toByteArray());
+        indexRecords++;
+    }
+
+    private static void writeRecord(OutputStream indexStream, byte[] record) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        ByteBuffer framed = ByteBuffer.allocate(record.length + 8);
+        framed.putInt(record.length).put(record).putInt((int) crc.getValue());
+        // One write per record, so that a crash can only cut off the last one.
+        indexStream.write(framed.array());
+    }
+
+    private long appendData(byte[] contents) throws IOException {
+        long offset = dataSize;
+        ByteBuffer buffer = ByteBuffer.wrap(contents);
+        while (buffer.hasRemaining()) {
+            dataChannel.write(buffer, offset + buffer.position());
+        }
+        if (contents.length > 0) {
+            // The record pointing at this data is appended next, and must never reach the disk
+            // without it, or replaying the index after a power loss would serve garbage.
+            dataChannel.force(false);
+        }
+        dataSize += contents.length;
+        return offset;
+    }
+
+    private byte[] readContents(Node node) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) node.length);
+        while (buffer.hasRemaining()) {
+            if (dataChannel.read(buffer, node.offset + buffer.position()) < 0) {
+                throw new EOFException("The pack data file is shorter than its index");
+            }
+        }
+        return buffer.array();
+    }
+
+    private void putFile(String fullPath, long offset, long length) throws IOException {
+        long now = System.currentTimeMillis();
+        appendRecord(RECORD_FILE, fullPath, offset, length, now);
+        applyFile(fullPath, offset, length, now);
+        scheduleCompactionIfNeeded();
+    }
+
+    private Node writeFile(String fullPath, byte[] contents) throws IOException {
+        Node parent = findParent(fullPath);
+        Node node = parent == null ? null : parent.children.get(nameOf(fullPath));
+        if (parent == null || (node != null && node.isDirectory)) {
+            throw new FileNotFoundException("Couldn't create the file at " + fullPath);
+        }
+        putFile(fullPath, appendData(contents), contents.length);
+        return parent.children.get(nameOf(fullPath));
+    }
+
+    private Node createNode(String fullPath, boolean directory) throws IOException {
+        if (findParent(fullPath) == null) {
+            return null;
+        }
+        if (directory) {
+            long now = System.currentTimeMillis();
+            appendRecord(RECORD_DIRECTORY, fullPath, now);
+            applyDirectory(fullPath, now);
+            return findNode(fullPath);
+        }
+        return writeFile(fullPath, new byte[0]);
+    }
+
+    private void remove(String fullPath) throws NoModificationAllowedException {
+        try {
+            appendRecord(RECORD_REMOVE, fullPath);
+        } catch (IOException e) {
+            throw new NoModificationAllowedException("Couldn't record the removal of " + fullPath);
+        }
+        applyRemove(fullPath);
+        scheduleCompactionIfNeeded();
+    }
+
+    /**
+     * Records a copy of the given subtree, which shares its contents with the original.
+     */
+    private void copyTree(Node node, String destPath) throws IOException {
+        if (node.isDirectory) {
+            createNode(destPath, true);
+            for (Map.Entry<String, Node> child : node.children.entrySet()) {
+                copyTree(child.getValue(), childPath(destPath, child.getKey()));
+            }
+        } else {
+            putFile(destPath, node.offset, node.length);
+        }
+    }
+
+    private void scheduleCompactionIfNeeded() {
+        long garbage = dataSize - liveSize;
+        boolean dataWasted = garbage >= MIN_COMPACTION_GARBAGE && garbage > liveSize;
+        boolean indexWasted = indexRecords >= MIN_COMPACTION_RECORDS && indexRecords > 2 * nodeCount;
+        if (!compactionScheduled && !closed && (dataWasted || indexWasted)) {
+            compactionScheduled = true;
+            compactionExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        compact();
+                    } catch (IOException e) {
+                        LOG.e(LOG_TAG, "Unable to compact the pack filesystem", e);
+                    }
+                }
+            });
+        }
+    }
+
+    private static void collectContents(Node node, TreeMap<Long, Long> contents) {
+        if (node.isDirectory) {
+            for (Node child : node.children.values()) {
+                collectContents(child, contents);
+            }
+        } else {
+            Long length = contents.get(node.offset);
+            if (length == null || length < node.length) {
+                contents.put(node.offset, node.length);
+            }
+        }
+    }
+
+    private static void copyRange(FileChannel from, long offset, long length, FileChannel to) throws IOException {
+        long copied = 0;
+        while (copied < length) {
+            long transferred = from.transferTo(offset + copied, length - copied, to);
+            if (transferred <= 0) {
+                throw new EOFException("The pack data file is shorter than its index");
+            }
+            copied += transferred;
+        }
+    }
+
+    /**
+     * Writes the next generation with only the contents that are still referenced. Contents that
+     * were live when this started are copied without holding the lock; whatever was written in
+     * the meantime is copied while holding it, together with the new index.
+     */
+    private void compact() throws IOException {
+        TreeMap<Long, Long> contents = new TreeMap<Long, Long>();
+        FileChannel oldChannel;
+        int newGeneration;
+        synchronized (this) {
+            compactionScheduled = false;
+            if (closed) {
+                return;
+            }
+            collectContents(root, contents);
+            oldChannel = dataChannel;
+            newGeneration = generation + 1;
+        }
+
+        File newDataFile = dataFileFor(newGeneration);
+        File newIndexFile = indexFileFor(newGeneration);
+        File tmpIndexFile = new File(directory, newIndexFile.getName() + ".tmp");
+        RandomAccessFile newData = new RandomAccessFile(newDataFile, "rw");
+        boolean committed = false;
+        try {
+            FileChannel newChannel = newData.getChannel();
+            newChannel.truncate(0);
+            // Old offset -> {new offset, length copied}
+            HashMap<Long, long[]> relocated = new HashMap<Long, long[]>();
+            for (Map.Entry<Long, Long> content : contents.entrySet()) {
+                relocated.put(content.getKey(), new long[] { newChannel.position(), content.getValue() });
+                copyRange(oldChannel, content.getKey(), content.getValue(), newChannel);
+            }
+
+            synchronized (this) {
+                if (closed || dataChannel != oldChannel) {
+                    return;
+                }
+                List<Node> files = new ArrayList<Node>();
+                List<String> paths = new ArrayList<String>();
+                collectFiles(root, "/", files, paths);
+                long[] newOffsets = new long[files.size()];
+                for (int i = 0; i < files.size(); i++) {
+                    Node file = files.get(i);
+                    long[] target = relocated.get(file.offset);
+                    if (target == null || target[1] < file.length) {
+                        target = new long[] { newChannel.position(), file.length };
+                        copyRange(oldChannel, file.offset, file.length, newChannel);
+                        relocated.put(file.offset, target);
+                    }
+                    newOffsets[i] = target[0];
+                }
+                newChannel.force(true);
+
+                int records = writeIndex(tmpIndexFile, files, paths, newOffsets);
+                if (!tmpIndexFile.renameTo(newIndexFile)) {
+                    throw new IOException("Couldn't replace the pack index");
+                }
+                committed = true;
+
+                for (int i = 0; i < files.size(); i++) {
+                    files.get(i).offset = newOffsets[i];
+                }
+                indexStream.close();
+                dataFile.close();
+                dataFileFor(generation).delete();
+                indexFileFor(generation).delete();
+                generation = newGeneration;
+                dataFile = newData;
+                dataChannel = newChannel;
+                dataSize = newChannel.size();
+                liveSize = root.size();
+                indexStream = new FileOutputStream(newIndexFile, true);
+                indexRecords = records;
+            }
+        } finally {
+            if (!committed) {
+                newData.close();
+                newDataFile.delete();
+                tmpIndexFile.delete();
+            }
+        }
+    }
+
+    private static void collectFiles(Node node, String fullPath, List<Node> files, List<String> paths) {
+        for (Map.Entry<String, Node> child : node.children.entrySet()) {
+            String path = childPath(fullPath, child.getKey());
+            if (child.getValue().isDirectory) {
+                collectFiles(child.getValue(), path, files, paths);
+            } else {
+                files.add(child.getValue());
+                paths.add(path);
+            }
+        }
+    }
+
+    /**
+     * Writes an index that recreates the current tree, with files at their new offsets.
+     */
+    private int writeIndex(File indexFile, List<Node> files, List<String> paths, long[] newOffsets) throws IOException {
+        HashMap<Node, Long> offsets = new HashMap<Node, Long>();
+        for (int i = 0; i < files.size(); i++) {
+            offsets.put(files.get(i), newOffsets[i]);
+        }
+        FileOutputStream out = new FileOutputStream(indexFile);
+        try {
+            DataOutputStream indexOut = new DataOutputStream(new BufferedOutputStream(out));
+            indexOut.writeInt(INDEX_MAGIC);
+            int records = writeTreeRecords(root, "/", offsets, indexOut);
+            indexOut.flush();
+            out.getFD().sync();
+            return records;
+        } finally {
+            out.close();
+        }
+    }
+
+    private static int writeTreeRecords(Node node, String fullPath, Map<Node, Long> offsets, OutputStream indexOut) throws IOException {
+        int records = 0;
+        for (Map.Entry<String, Node> child : node.children.entrySet()) {
+            Node childNode = child.getValue();
+            String path = childPath(fullPath, child.getKey());
+            ByteArrayOutputStream record = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(record);
+            out.writeByte(childNode.isDirectory ? RECORD_DIRECTORY : RECORD_FILE);
+            out.writeUTF(path);
+            if (!childNode.isDirectory) {
+                out.writeLong(offsets.get(childNode));
+                out.writeLong(childNode.length);
+            }
+            out.writeLong(childNode.lastModified);
+            writeRecord(indexOut, record.toByteArray());
+            records++;
+            if (childNode.isDirectory) {
+                records += writeTreeRecords(childNode, path, offsets, indexOut);
+            }
+        }
+        return records;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+        }
+        compactionExecutor.shutdown();
+        synchronized (this) {
+            indexStream.close();
+            dataFile.close();
+        }
+    }
+
+    private String mimeTypeForPath(String fullPath) {
+        return resourceApi.getMimeType(Uri.fromFile(new File(fullPath)));
+    }
+
+    @Override
+    public Uri toNativeUri(LocalFilesystemURL inputURL) {
+        // Files don't exist individually, so the filesystem URL is the only way to reach them.
+        return inputURL.uri;
+    }
+
+    @Override
+    public LocalFilesystemURL toLocalUri(Uri inputURL) {
+        LocalFilesystemURL url = LocalFilesystemURL.parse(inputURL);
+        if (url == null || !name.equals(url.fsName)) {
+            return null;
+        }
+        synchronized (this) {
+            Node node = findNode(url.path);
+            if (node != null && node.isDirectory != url.isDirectory) {
+                return localUrlForPath(url.path, node.isDirectory);
+            }
+        }
+        return url;
+    }
+
+    @Override
+    public LocalFilesystemURL URLforFilesystemPath(String path) {
+        return null;
+    }
+
+    @Override
+    public String filesystemPathForURL(LocalFilesystemURL url) {
+        return null;
+    }
+
+    @Override
+    public JSONObject getFileForLocalURL(LocalFilesystemURL inputURL,
+            String path, JSONObject options, boolean directory) throws FileExistsException, IOException, TypeMismatchException, EncodingException, JSONException {
+        boolean create = false;
+        boolean exclusive = false;
+
+        if (options != null) {
+            create = options.optBoolean("create");
+            if (create) {
+                exclusive = options.optBoolean("exclusive");
+            }
+        }
+
+        // Check for a ":" character in the file to line up with BB and iOS
+        if (path.contains(":")) {
+            throw new EncodingException("This path has an invalid \":\" in it.");
+        }
+
+        String fullPath;
+        if (path.startsWith("/")) {
+            fullPath = normalizePath(path);
+        } else {
+            fullPath = normalizePath(inputURL.path + "/" + path);
+        }
+
+        boolean isDirectory;
+        synchronized (this) {
+            Node node = findNode(fullPath);
+            if (create) {
+                if (exclusive && node != null) {
+                    throw new FileExistsException("create/exclusive fails");
+                }
+                if (node == null) {
+                    node = createNode(fullPath, directory);
+                }
+                if (node == null) {
+                    throw new FileExistsException("create fails");
+                }
+            } else {
+                if (node == null) {
+                    throw new FileNotFoundException("path does not exist");
+                }
+                if (directory && !node.isDirectory) {
+                    throw new TypeMismatchException("path doesn't exist or is file");
+                } else if (!directory && node.isDirectory) {
+                    throw new TypeMismatchException("path doesn't exist or is directory");
+                }
+            }
+            isDirectory = node.isDirectory;
+        }
+
+        return makeEntryForURL(localUrlForPath(fullPath, isDirectory));
+    }
+
+    @Override
+    public synchronized boolean removeFileAtLocalURL(LocalFilesystemURL inputURL) throws InvalidModificationException, NoModificationAllowedException {
+        Node node = findNode(inputURL.path);
+        if (node == null || node == root) {
+            return false;
+        }
+        // You can't delete a directory that is not empty
+        if (node.isDirectory && !node.children.isEmpty()) {
+            throw new InvalidModificationException("You can't delete a directory that is not empty.");
+        }
+        remove(inputURL.path);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean recursiveRemoveFileAtLocalURL(LocalFilesystemURL inputURL) throws FileExistsException, NoModificationAllowedException {
+        Node node = findNode(inputURL.path);
+        if (node == null || node == root) {
+            throw new FileExistsException("could not delete: " + inputURL.path);
+        }
+        remove(inputURL.path);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean exists(LocalFilesystemURL inputURL) {
+        return findNode(inputURL.path) != null;
+    }
+
+    @Override
+    public synchronized LocalFilesystemURL[] listChildren(LocalFilesystemURL inputURL) throws FileNotFoundException {
+        Node node = findNode(inputURL.path);
+        if (node == null) {
+            // The directory we are listing doesn't exist so we should fail.
+            throw new FileNotFoundException();
+        }
+        if (!node.isDirectory) {
+            return null;
+        }
+        LocalFilesystemURL[] entries = new LocalFilesystemURL[node.children.size()];
+        int i = 0;
+        for (Map.Entry<String, Node> child : node.children.entrySet()) {
+            entries[i++] = localUrlForPath(childPath(inputURL.path, child.getKey()), child.getValue().isDirectory);
+        }
+        return entries;
+    }
+
+    @Override
+    public synchronized JSONObject getFileMetadataForLocalURL(LocalFilesystemURL inputURL) throws FileNotFoundException {
+        Node node = findNode(inputURL.path);
+        if (node == null) {
+            throw new FileNotFoundException("File at " + inputURL.uri + " does not exist.");
+        }
+
+        JSONObject metadata = new JSONObject();
+        try {
+            // Ensure that directories report a size of 0
+            metadata.put("size", node.isDirectory ? 0 : node.length);
+            metadata.put("type", node.isDirectory ? null : mimeTypeForPath(inputURL.path));
+            metadata.put("name", nameOf(inputURL.path));
+            metadata.put("fullPath", inputURL.path);
+            metadata.put("lastModifiedDate", node.lastModified);
+        } catch (JSONException e) {
+            return null;
+        }
+        return metadata;
+    }
+
+    @Override
+    public CordovaResourceApi.OpenForReadResult openForRead(LocalFilesystemURL inputURL) throws IOException {
+        byte[] contents;
+        synchronized (this) {
+            Node node = findNode(inputURL.path);
+            if (node == null || node.isDirectory) {
+                throw new FileNotFoundException("File at " + inputURL.uri + " does not exist.");
+            }
+            // Files are small, and reading them whole keeps them consistent across a compaction.
+            contents = readContents(node);
+        }
+        return new CordovaResourceApi.OpenForReadResult(inputURL.uri, new ByteArrayInputStream(contents),
+                mimeTypeForPath(inputURL.path), contents.length, null);
+    }
+
+    /**
+     * Returns a stream whose contents replace the file, creating it if needed, once it is closed.
+     */
+    private OutputStream openOutputStream(final String fullPath) {
+        return new ByteArrayOutputStream() {
+            @Override
+            public void close() throws IOException {
+                synchronized (PackFilesystem.this) {
+                    writeFile(fullPath, toByteArray());
+                }
+            }
+        };
+    }
+
+    @Override
+    public OutputStream getOutputStreamForURL(LocalFilesystemURL inputURL) throws IOException {
+        return openOutputStream(inputURL.path);
+    }
+
+    @Override
+    public synchronized long writeToFileAtURL(LocalFilesystemURL inputURL, String data,
+            int offset, boolean isBinary) throws IOException {
+        byte[] rawData;
+        if (isBinary) {
+            rawData = Base64.decode(data, Base64.DEFAULT);
+        } else {
+            rawData = data.getBytes(Charset.defaultCharset());
+        }
+
+        Node node = findNode(inputURL.path);
+        if (node != null && node.isDirectory) {
+            throw new FileNotFoundException("File at " + inputURL.uri + " does not exist.");
+        }
+        // As with local files, the write replaces everything from the offset onwards.
+        byte[] contents = rawData;
+        if (node != null && offset > 0) {
+            byte[] existing = readContents(node);
+            int keep = Math.min(offset, existing.length);
+            contents = new byte[keep + rawData.length];
+            System.arraycopy(existing, 0, contents, 0, keep);
+            System.arraycopy(rawData, 0, contents, keep, rawData.length);
+        }
+        writeFile(inputURL.path, contents);
+        return rawData.length;
+    }
+
+    @Override
+    public synchronized long truncateFileAtURL(LocalFilesystemURL inputURL, long size) throws IOException {
+        Node node = findNode(inputURL.path);
+        if (node == null || node.isDirectory) {
+            throw new FileNotFoundException("File at " + inputURL.uri + " does not exist.");
+        }
+        if (node.length >= size) {
+            // The shorter file is a prefix of the same contents.
+            putFile(inputURL.path, node.offset, size);
+            return size;
+        }
+        return node.length;
+    }
+
+    @Override
+    public JSONObject copyFileToURL(LocalFilesystemURL destURL, String newName,
+            Filesystem srcFs, LocalFilesystemURL srcURL, boolean move) throws IOException, InvalidModificationException, JSONException, NoModificationAllowedException, FileExistsException {
+        if (move && !srcFs.canRemoveFileAtLocalURL(srcURL)) {
+            throw new InvalidModificationException("Source URL is read-only (cannot move)");
+        }
+        // I know this looks weird but it is to work around a JSON bug.
+        if ("null".equals(newName) || "".equals(newName)) {
+            newName = nameOf(srcURL.path);
+        }
+        String destPath = childPath(destURL.path, newName);
+        if (srcFs != this) {
+            if (srcURL.isDirectory) {
+                copyDirectoryFrom(srcFs, srcURL, destPath);
+            } else {
+                copyResource(srcFs.openForRead(srcURL), openOutputStream(destPath));
+            }
+            if (move) {
+                if (srcURL.isDirectory) {
+                    srcFs.recursiveRemoveFileAtLocalURL(srcURL);
+                } else {
+                    srcFs.removeFileAtLocalURL(srcURL);
+                }
+            }
+            return makeEntryForURL(localUrlForPath(destPath, srcURL.isDirectory));
+        }
+
+        boolean isDirectory;
+        synchronized (this) {
+            Node srcNode = findNode(srcURL.path);
+            if (srcNode == null) {
+                throw new FileNotFoundException("The source does not exist");
+            }
+            Node destParent = findNode(destURL.path);
+            if (destParent == null || !destParent.isDirectory) {
+                throw new FileNotFoundException("The destination does not exist");
+            }
+            if (normalizePath(destPath).equals(normalizePath(srcURL.path))) {
+                throw new InvalidModificationException("Can't copy onto itself");
+            }
+            if (srcNode.isDirectory && normalizePath(destPath).startsWith(normalizePath(srcURL.path) + '/')) {
+                throw new InvalidModificationException("Can't copy directory into itself");
+            }
+            Node existing = destParent.children.get(newName);
+            if (existing != null) {
+                if (!srcNode.isDirectory && existing.isDirectory) {
+                    throw new InvalidModificationException("Can't copy/move a file to an existing directory");
+                } else if (srcNode.isDirectory && !existing.isDirectory) {
+                    throw new InvalidModificationException("Can't copy/move a directory to an existing file");
+                } else if (existing.isDirectory && !existing.children.isEmpty()) {
+                    throw new InvalidModificationException("directory is not empty");
+                }
+            }
+
+            if (move) {
+                long now = System.currentTimeMillis();
+                appendRecord(RECORD_MOVE, srcURL.path, destPath, now);
+                applyMove(srcURL.path, destPath, now);
+                scheduleCompactionIfNeeded();
+            } else {
+                if (existing != null) {
+                    remove(destPath);
+                }
+                copyTree(srcNode, destPath);
+            }
+            isDirectory = srcNode.isDirectory;
+        }
+        return makeEntryForURL(localUrlForPath(destPath, isDirectory));
+    }
+
+    private void copyDirectoryFrom(Filesystem srcFs, LocalFilesystemURL srcURL, String destPath) throws IOException, InvalidModificationException, NoModificationAllowedException {
+        synchronized (this) {
+            Node node = findNode(destPath);
+            if (node == null) {
+                node = createNode(destPath, true);
+            }
+            if (node == null) {
+                // If we can't create the directory then fail
+                throw new NoModificationAllowedException("Couldn't create the destination directory");
+            }
+            if (!node.isDirectory) {
+                throw new InvalidModificationException("Can't copy/move a directory to an existing file");
+            }
+        }
+        LocalFilesystemURL[] children = srcFs.listChildren(srcURL);
+        if (children == null) {
+            return;
+        }
+        for (LocalFilesystemURL child : children) {
+            String childDestPath = childPath(destPath, nameOf(child.path));
+            if (child.isDirectory) {
+                copyDirectoryFrom(srcFs, child, childDestPath);
+            } else {
+                copyResource(srcFs.openForRead(child), openOutputStream(childDestPath));
+            }
+        }
+    }
+
+    @Override
+    public long getFreeSpaceInBytes() {
+        return DirectoryManager.getFreeSpaceInBytes(directory.getPath());
+    }
+
+    @Override
+    public boolean canRemoveFileAtLocalURL(LocalFilesystemURL inputURL) {
+        return exists(inputURL);
+    }
+}
@@ -0,0 +1,184 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.file;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Serializes conflicting operations on the same files, keyed by absolute path. Paths are hashed
+ * onto a fixed number of read/write locks, so unrelated paths occasionally wait for each other,
+ * but memory use doesn't grow with the number of files.
+ *
+ * Locking a path also takes a read lock on each of its parent directories below the outermost
+ * filesystem root that contains it, so that an operation on a whole directory (which takes a
+ * write lock on it) excludes operations on anything inside. Roots themselves are never written,
+ * and locking them and the directories above them would make every path share those stripes.
+ * All locks needed by an operation are taken at once, in a fixed order, so operations can't
+ * deadlock against each other.
+ *
+ * An operation that calls into another one while holding its locks doesn't take any more; the
+ * locks it already holds must cover the paths the nested operation works on.
+ */
+class PathLocks {
+
+    private static final int NONE = 0;
+    private static final int READ = 1;
+    private static final int WRITE = 2;
+
+    /**
+     * Locks held by an operation, which must be released when it finishes.
+     */
+    class Held {
+        private final Lock[] locks;
+
+        private Held(Lock[] locks) {
+            this.locks = locks;
+        }
+
+        void release() {
+            if (locks == null) {
+                depth.set(depth.get() - 1);
+                return;
+            }
+            for (int i = locks.length - 1; i >= 0; i--) {
+                locks[i].unlock();
+            }
+            depth.set(0);
+        }
+    }
+
+    private final ReentrantReadWriteLock[] stripes;
+    private final List<String> roots = new CopyOnWriteArrayList<String>();
+    // How many operations the current thread is inside of
+    private final ThreadLocal<Integer> depth = new ThreadLocal<Integer>() {
+        @Override
+        protected Integer initialValue() {
+            return 0;
+        }
+    };
+
+    PathLocks(int stripes) {
+        this.stripes = new ReentrantReadWriteLock[stripes];
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    /**
+     * Registers the root of a filesystem whose paths are locked here.
+     */
+    void addRoot(String root) {
+        String path = new File(root).getAbsolutePath();
+        if (!roots.contains(path)) {
+            roots.add(path);
+        }
+    }
+
+    private int stripeFor(String path) {
+        return (path.hashCode() & 0x7fffffff) % stripes.length;
+    }
+
+    /**
+     * Returns the outermost registered root that is the path or lies above it, or null if there
+     * is none.
+     */
+    private String outermostRoot(String path) {
+        String outermost = null;
+        for (String root : roots) {
+            String prefix = root.endsWith("/") ? root : root + '/';
+            if ((path.equals(root) || path.startsWith(prefix)) && (outermost == null || root.length() < outermost.length())) {
+                outermost = root;
+            }
+        }
+        return outermost;
+    }
+
+    private void mark(int[] modes, String path, int mode) {
+        File file = new File(path).getAbsoluteFile();
+        int stripe = stripeFor(file.getPath());
+        modes[stripe] = Math.max(modes[stripe], mode);
+        String root = outermostRoot(file.getPath());
+        int rootLength = root == null ? 0 : root.length();
+        for (File parent = file.getParentFile(); parent != null && parent.getPath().length() > rootLength; parent = parent.getParentFile()) {
+            stripe = stripeFor(parent.getPath());
+            modes[stripe] = Math.max(modes[stripe], READ);
+        }
+    }
+
+    /**
+     * Blocks until the given paths can be used.
+     *
+     * @param writePaths    Paths that will be created, changed or removed (may contain nulls)
+     * @param readPaths     Paths that will only be read (may contain nulls)
+     */
+    Held lock(String[] writePaths, String[] readPaths) {
+        int currentDepth = depth.get();
+        if (currentDepth > 0) {
+            depth.set(currentDepth + 1);
+            return new Held(null);
+        }
+
+        int[] modes = new int[stripes.length];
+        int count = 0;
+        for (String path : writePaths) {
+            if (path != null) {
+                mark(modes, path, WRITE);
+            }
+        }
+        for (String path : readPaths) {
+            if (path != null) {
+                mark(modes, path, READ);
+            }
+        }
+        for (int mode : modes) {
+            if (mode != NONE) {
+                count++;
+            }
+        }
+
+        Lock[] locks = new Lock[count];
+        int i = 0;
+        String previousPhase = OperationTrace.phase("lock");
+        for (int stripe = 0; stripe < modes.length; stripe++) {
+            if (modes[stripe] == WRITE) {
+                locks[i] = stripes[stripe].writeLock();
+            } else if (modes[stripe] == READ) {
+                locks[i] = stripes[stripe].readLock();
+            } else {
+                continue;
+            }
+            locks[i++].lock();
+        }
+        OperationTrace.restorePhase(previousPhase);
+        depth.set(1);
+        return new Held(locks);
+    }
+
+    Held lockForWriting(String path) {
+        return lock(new String[] { path }, new String[0]);
+    }
+
+    Held lockForReading(String path) {
+        return lock(new String[0], new String[] { path });
+    }
+}
@@ -0,0 +1,165 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.file;
+
+import android.content.ComponentCallbacks2;
+import android.util.LruCache;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Holds the contents of small, frequently requested resources served by the cdvfile path handler,
+ * so that repeated requests can be answered without opening the underlying file.
+ *
+ * Entries are keyed by the resolved native path plus its modification time, so a file that changes
+ * outside of the plugin is simply missed rather than served stale. Changes made through the plugin
+ * are removed eagerly with {@link #invalidate(String)}.
+ */
+class ResourceCache {
+
+    /**
+     * A cached resource.
+     */
+    static class Entry {
+        final String mimeType;
+        final byte[] data;
+        final long lastModified;
+
+        private Entry(String mimeType, byte[] data, long lastModified) {
+            this.mimeType = mimeType;
+            this.data = data;
+            this.lastModified = lastModified;
+        }
+    }
+
+    private final int maxSize;
+    private final int maxEntrySize;
+    private final LruCache<String, Entry> cache;
+
+    /**
+     * @param maxSize       The total number of bytes the cache may hold
+     * @param maxEntrySize  The largest resource, in bytes, that will be cached
+     */
+    ResourceCache(int maxSize, int maxEntrySize) {
+        this.maxSize = maxSize;
+        this.maxEntrySize = maxEntrySize;
+        this.cache = new LruCache<String, Entry>(maxSize) {
+            @Override
+            protected int sizeOf(String key, Entry entry) {
+                return entry.data.length;
+            }
+        };
+    }
+
+    private static String keyFor(String path, long lastModified) {
+        return path + '@' + lastModified;
+    }
+
+    /**
+     * Whether a resource of the given length is small enough to be cached.
+     */
+    boolean accepts(long length) {
+        return length >= 0 && length <= maxEntrySize;
+    }
+
+    /**
+     * Looks up a resource.
+     *
+     * @param path          The resolved native path of the resource
+     * @param lastModified  The current modification time of the resource
+     * @return              The cached entry, or null if it is not cached
+     */
+    Entry get(String path, long lastModified) {
+        return cache.get(keyFor(path, lastModified));
+    }
+
+    /**
+     * Reads a resource fully into the cache. The stream is always closed.
+     *
+     * @param path          The resolved native path of the resource
+     * @param lastModified  The modification time of the resource
+     * @param mimeType      The mime type to serve the resource with
+     * @param inputStream   A stream positioned at the start of the resource
+     * @param length        The length of the resource, which must be accepted by {@link #accepts(long)}
+     * @return              The newly cached entry
+     */
+    Entry put(String path, long lastModified, String mimeType, InputStream inputStream, long length) throws IOException {
+        byte[] data = new byte[(int) length];
+        try {
+            int offset = 0;
+            while (offset < data.length) {
+                int bytesRead = inputStream.read(data, offset, data.length - offset);
+                if (bytesRead < 0) {
+                    throw new EOFException("Resource is shorter than its reported length: " + path);
+                }
+                offset += bytesRead;
+            }
+        } finally {
+            inputStream.close();
+        }
+        Entry entry = new Entry(mimeType, data, lastModified);
+        cache.put(keyFor(path, lastModified), entry);
+        return entry;
+    }
+
+    /**
+     * Removes the resource at the given path, and anything below it if it is a directory.
+     */
+    void invalidate(String path) {
+        String filePrefix = path + '@';
+        String dirPrefix = path.endsWith("/") ? path : path + '/';
+        for (String key : cache.snapshot().keySet()) {
+            if (key.startsWith(filePrefix) || key.startsWith(dirPrefix)) {
+                cache.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Releases memory in response to {@link ComponentCallbacks2#onTrimMemory(int)}.
+     */
+    void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            cache.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            cache.trimToSize(maxSize / 2);
+        }
+    }
+
+    JSONObject getStats() throws JSONException {
+        int hits = cache.hitCount();
+        int misses = cache.missCount();
+        JSONObject stats = new JSONObject();
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("hitRate", hits + misses == 0 ? 0 : (double) hits / (hits + misses));
+        stats.put("evictions", cache.evictionCount());
+        stats.put("entries", cache.snapshot().size());
+        stats.put("size", cache.size());
+        stats.put("maxSize", maxSize);
+        stats.put("maxEntrySize", maxEntrySize);
+        return stats;
+    }
+}
@@ -0,0 +1,163 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.file;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.CordovaWebView;
+import org.apache.cordova.PluginResult;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Lets identical requests that arrive while the first of them is still running share its result,
+ * instead of each doing the same work. Requests are identical if they have the same action and
+ * arguments, which for reads include the URL and range.
+ *
+ * Only requests that don't change anything may be shared. Any change must call {@link #close()}
+ * first, so that a request made after the change never receives a result from before it.
+ * Requests that are aborted stop waiting, and the running request is only aborted once no one
+ * is left waiting for it.
+ */
+class SingleFlight {
+
+    /**
+     * The callback that the running request reports to, which passes each result on to every
+     * request that is waiting for it.
+     */
+    private class Flight extends CallbackContext {
+        private final String key;
+        // The ID that the running request can be aborted with, if any
+        private final String operationId;
+        private final List<CallbackContext> waiters = new ArrayList<CallbackContext>();
+        private final List<String> waiterOperationIds = new ArrayList<String>();
+
+        Flight(String key, String operationId, CallbackContext first) {
+            super(first.getCallbackId(), webView);
+            this.key = key;
+            this.operationId = operationId;
+            addWaiter(first, operationId);
+        }
+
+        // Must be called while holding the lock on the SingleFlight.
+        void addWaiter(CallbackContext callbackContext, String waiterOperationId) {
+            waiters.add(callbackContext);
+            waiterOperationIds.add(waiterOperationId);
+            if (waiterOperationId != null) {
+                flightsByOperation.put(waiterOperationId, this);
+            }
+        }
+
+        @Override
+        public void sendPluginResult(PluginResult pluginResult) {
+            List<CallbackContext> targets;
+            synchronized (SingleFlight.this) {
+                if (!pluginResult.getKeepCallback()) {
+                    if (flights.get(key) == this) {
+                        flights.remove(key);
+                    }
+                    for (String waiterOperationId : waiterOperationIds) {
+                        if (waiterOperationId != null) {
+                            flightsByOperation.remove(waiterOperationId);
+                        }
+                    }
+                }
+                targets = new ArrayList<CallbackContext>(waiters);
+            }
+            for (CallbackContext target : targets) {
+                target.sendPluginResult(pluginResult);
+            }
+        }
+    }
+
+    private final CordovaWebView webView;
+    private final HashMap<String, Flight> flights = new HashMap<String, Flight>();
+    // Every request waiting on a running flight, by operation ID, including closed flights
+    private final HashMap<String, Flight> flightsByOperation = new HashMap<String, Flight>();
+    private long started;
+    private long coalesced;
+
+    SingleFlight(CordovaWebView webView) {
+        this.webView = webView;
+    }
+
+    /**
+     * Starts a request, or attaches it to an identical one that is already running.
+     *
+     * @param args          The request's arguments, without its operation ID
+     * @param operationId   The ID the request can be aborted with, or null
+     * @return  The callback to run the request with, or null if it will receive the result of
+     *          a request that is already running
+     */
+    synchronized CallbackContext join(String action, String args, String operationId, CallbackContext callbackContext) {
+        String key = action + '\u0000' + args;
+        Flight flight = flights.get(key);
+        if (flight != null) {
+            flight.addWaiter(callbackContext, operationId);
+            coalesced++;
+            return null;
+        }
+        flight = new Flight(key, operationId, callbackContext);
+        flights.put(key, flight);
+        started++;
+        return flight;
+    }
+
+    /**
+     * Stops the request with the given operation ID from receiving a result.
+     *
+     * @return  The operation ID to abort the work with, which is null while other requests are
+     *          still waiting for it
+     */
+    synchronized String abandon(String operationId) {
+        Flight flight = flightsByOperation.remove(operationId);
+        if (flight == null) {
+            return operationId;
+        }
+        int index = flight.waiterOperationIds.indexOf(operationId);
+        flight.waiters.remove(index);
+        flight.waiterOperationIds.remove(index);
+        if (!flight.waiters.isEmpty()) {
+            return null;
+        }
+        // Nobody wants the result any more, so identical requests have to start over.
+        if (flights.get(flight.key) == flight) {
+            flights.remove(flight.key);
+        }
+        return flight.operationId;
+    }
+
+    /**
+     * Stops requests that are already running from being shared with new ones.
+     */
+    synchronized void close() {
+        flights.clear();
+    }
+
+    synchronized JSONObject getStats() throws JSONException {
+        JSONObject stats = new JSONObject();
+        stats.put("started", started);
+        stats.put("coalesced", coalesced);
+        stats.put("inFlight", flights.size());
+        return stats;
+    }
+}
@@ -0,0 +1,511 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.file;
+
+import android.net.Uri;
+
+import org.apache.cordova.CordovaPreferences;
+import org.apache.cordova.CordovaResourceApi;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * A read-only filesystem over the contents of a zip archive, so that content packs can be used
+ * without extracting them first.
+ *
+ * The archive's central directory is read once when it is mounted, which gives the size, location
+ * and compression of every entry. Stored entries are then read directly at their offset in the
+ * archive, so range reads don't touch the bytes before them; deflated entries are inflated as they
+ * are streamed. Zip64 archives are not supported.
+ */
+public class ZipFilesystem extends Filesystem implements Closeable {
+
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int EOCD_SIZE = 22;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+    private static final int CEN_SIGNATURE = 0x02014b50;
+    private static final int CEN_HEADER_SIZE = 46;
+    private static final int LOC_SIGNATURE = 0x04034b50;
+    private static final int LOC_HEADER_SIZE = 30;
+
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+    private static final int FLAG_ENCRYPTED = 0x1;
+
+    private static class ZipEntryInfo {
+        final int method;
+        final boolean encrypted;
+        final long compressedSize;
+        final long size;
+        final long localHeaderOffset;
+        final long lastModified;
+        // Found from the local header the first time the entry is read
+        volatile long dataOffset = -1;
+
+        ZipEntryInfo(int method, boolean encrypted, long compressedSize, long size, long localHeaderOffset, long lastModified) {
+            this.method = method;
+            this.encrypted = encrypted;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * Reads a range of the archive with positional reads, so that any number of entries can be
+     * read at once through the same channel.
+     */
+    private static class ChannelInputStream extends InputStream {
+        private final FileChannel channel;
+        private final long end;
+        private long position;
+
+        ChannelInputStream(FileChannel channel, long offset, long length) {
+            this.channel = channel;
+            this.position = offset;
+            this.end = offset + length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int byteOffset, int byteCount) throws IOException {
+            if (position >= end) {
+                return -1;
+            }
+            int toRead = (int) Math.min(byteCount, end - position);
+            int bytesRead = channel.read(ByteBuffer.wrap(buffer, byteOffset, toRead), position);
+            if (bytesRead <= 0) {
+                return -1;
+            }
+            position += bytesRead;
+            return bytesRead;
+        }
+
+        @Override
+        public long skip(long byteCount) {
+            long skipped = Math.max(0, Math.min(byteCount, end - position));
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(end - position, Integer.MAX_VALUE);
+        }
+    }
+
+    private static class EntryInflaterInputStream extends InflaterInputStream {
+        private boolean eof;
+
+        EntryInflaterInputStream(InputStream in) {
+            super(in, new Inflater(true), 8192);
+        }
+
+        @Override
+        protected void fill() throws IOException {
+            if (eof) {
+                throw new EOFException("Unexpected end of zip entry");
+            }
+            len = in.read(buf, 0, buf.length);
+            if (len == -1) {
+                // A raw inflater needs an extra byte to finish, as in java.util.zip.ZipFile.
+                buf[0] = 0;
+                len = 1;
+                eof = true;
+            }
+            inf.setInput(buf, 0, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            inf.end();
+        }
+    }
+
+    private final File archiveFile;
+    private final RandomAccessFile archive;
+    private final FileChannel channel;
+    private final Map<String, ZipEntryInfo> files = new HashMap<String, ZipEntryInfo>();
+    // The names of each directory's children, mapped to whether they are directories themselves
+    private final Map<String, TreeMap<String, Boolean>> directories = new HashMap<String, TreeMap<String, Boolean>>();
+
+    public ZipFilesystem(String name, File archiveFile, CordovaResourceApi resourceApi, CordovaPreferences preferences) throws IOException {
+        super(createLocalUriBuilder(name, preferences).appendEncodedPath("").build(), name, resourceApi, preferences);
+        this.archiveFile = archiveFile;
+        this.archive = new RandomAccessFile(archiveFile, "r");
+        this.channel = archive.getChannel();
+        directories.put("/", new TreeMap<String, Boolean>());
+        try {
+            readCentralDirectory();
+        } catch (IOException e) {
+            archive.close();
+            throw e;
+        }
+    }
+
+    public File getArchiveFile() {
+        return archiveFile;
+    }
+
+    @Override
+    public void close() throws IOException {
+        archive.close();
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int bytesRead = channel.read(buffer, position + buffer.position());
+            if (bytesRead < 0) {
+                throw new EOFException("Unexpected end of archive");
+            }
+        }
+        buffer.flip();
+    }
+
+    private void readCentralDirectory() throws IOException {
+        long archiveSize = channel.size();
+        int tailSize = (int) Math.min(archiveSize, EOCD_SIZE + MAX_COMMENT_SIZE);
+        ByteBuffer tail = ByteBuffer.allocate(tailSize).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(tail, archiveSize - tailSize);
+
+        // The end of central directory record is followed only by the archive comment.
+        int eocd = -1;
+        for (int i = tailSize - EOCD_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == EOCD_SIGNATURE) {
+                eocd = i;
+                break;
+            }
+        }
+        if (eocd < 0) {
+            throw new ZipException("Not a zip archive: " + archiveFile);
+        }
+        int entryCount = tail.getShort(eocd + 10) & 0xFFFF;
+        long centralDirectorySize = tail.getInt(eocd + 12) & 0xFFFFFFFFL;
+        long centralDirectoryOffset = tail.getInt(eocd + 16) & 0xFFFFFFFFL;
+        if (entryCount == 0xFFFF || centralDirectoryOffset == 0xFFFFFFFFL) {
+            throw new ZipException("Zip64 archives are not supported: " + archiveFile);
+        }
+
+        ByteBuffer centralDirectory = ByteBuffer.allocate((int) centralDirectorySize).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(centralDirectory, centralDirectoryOffset);
+        Charset utf8 = Charset.forName("UTF-8");
+        int pos = 0;
+        for (int i = 0; i < entryCount; i++) {
+            if (pos + CEN_HEADER_SIZE > centralDirectory.limit() || centralDirectory.getInt(pos) != CEN_SIGNATURE) {
+                throw new ZipException("Invalid central directory in " + archiveFile);
+            }
+            int flags = centralDirectory.getShort(pos + 8) & 0xFFFF;
+            int method = centralDirectory.getShort(pos + 10) & 0xFFFF;
+            int dosTime = centralDirectory.getInt(pos + 12);
+            long compressedSize = centralDirectory.getInt(pos + 20) & 0xFFFFFFFFL;
+            long size = centralDirectory.getInt(pos + 24) & 0xFFFFFFFFL;
+            int nameLength = centralDirectory.getShort(pos + 28) & 0xFFFF;
+            int extraLength = centralDirectory.getShort(pos + 30) & 0xFFFF;
+            int commentLength = centralDirectory.getShort(pos + 32) & 0xFFFF;
+            long localHeaderOffset = centralDirectory.getInt(pos + 42) & 0xFFFFFFFFL;
+
+            byte[] nameBytes = new byte[nameLength];
+            centralDirectory.position(pos + CEN_HEADER_SIZE);
+            centralDirectory.get(nameBytes);
+            String entryName = new String(nameBytes, utf8);
+            pos += CEN_HEADER_SIZE + nameLength + extraLength + commentLength;
+
+            String path = normalizePath("/" + entryName);
+            if (path.isEmpty() || "/".equals(path)) {
+                continue;
+            }
+            if (entryName.endsWith("/")) {
+                addDirectory(path);
+            } else if (!directories.containsKey(path)) {
+                files.put(path, new ZipEntryInfo(method, (flags & FLAG_ENCRYPTED) != 0, compressedSize, size,
+                        localHeaderOffset, dosToJavaTime(dosTime)));
+                addDirectory(parentPath(path)).put(nameOf(path), false);
+            }
+        }
+    }
+
+    /**
+     * Adds a directory and any missing parents to the index.
+     */
+    private TreeMap<String, Boolean> addDirectory(String path) {
+        TreeMap<String, Boolean> children = directories.get(path);
+        if (children == null) {
+            children = new TreeMap<String, Boolean>();
+            directories.put(path, children);
+            addDirectory(parentPath(path)).put(nameOf(path), true);
+        }
+        return children;
+    }
+
+    private static long dosToJavaTime(int dosTime) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(((dosTime >> 25) & 0x7F) + 1980, ((dosTime >> 21) & 0x0F) - 1, (dosTime >> 16) & 0x1F,
+                (dosTime >> 11) & 0x1F, (dosTime >> 5) & 0x3F, (dosTime << 1) & 0x3E);
+        return calendar.getTimeInMillis();
+    }
+
+    private static String indexKey(String fullPath) {
+        String path = normalizePath(fullPath.startsWith("/") ? fullPath : "/" + fullPath);
+        return path.isEmpty() ? "/" : path;
+    }
+
+    private static String nameOf(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    private static String parentPath(String path) {
+        int lastSlash = path.lastIndexOf('/');
+        return lastSlash <= 0 ? "/" : path.substring(0, lastSlash);
+    }
+
+    private ZipEntryInfo requireFile(LocalFilesystemURL inputURL) throws FileNotFoundException {
+        ZipEntryInfo entry = files.get(indexKey(inputURL.path));
+        if (entry == null) {
+            throw new FileNotFoundException("File at " + inputURL.uri + " does not exist.");
+        }
+        return entry;
+    }
+
+    private long dataOffset(ZipEntryInfo entry) throws IOException {
+        if (entry.dataOffset < 0) {
+            ByteBuffer header = ByteBuffer.allocate(LOC_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(header, entry.localHeaderOffset);
+            if (header.getInt(0) != LOC_SIGNATURE) {
+                throw new ZipException("Invalid local header in " + archiveFile);
+            }
+            entry.dataOffset = entry.localHeaderOffset + LOC_HEADER_SIZE
+                    + (header.getShort(26) & 0xFFFF) + (header.getShort(28) & 0xFFFF);
+        }
+        return entry.dataOffset;
+    }
+
+    /**
+     * Opens an entry for reading, positioned at the given offset into its uncompressed contents.
+     */
+    private InputStream openEntry(ZipEntryInfo entry, long start) throws IOException {
+        if (entry.encrypted) {
+            throw new ZipException("Encrypted entries are not supported");
+        }
+        InputStream raw = new ChannelInputStream(channel, dataOffset(entry), entry.compressedSize);
+        InputStream inputStream;
+        if (entry.method == METHOD_STORED) {
+            inputStream = raw;
+        } else if (entry.method == METHOD_DEFLATED) {
+            inputStream = new EntryInflaterInputStream(raw);
+        } else {
+            throw new ZipException("Unsupported compression method " + entry.method);
+        }
+        // Free for stored entries; deflated ones have to be inflated up to the start.
+        long remaining = start;
+        while (remaining > 0) {
+            long skipped = inputStream.skip(remaining);
+            if (skipped <= 0) {
+                break;
+            }
+            remaining -= skipped;
+        }
+        return inputStream;
+    }
+
+    private String mimeTypeForPath(String path) {
+        return resourceApi.getMimeType(Uri.fromFile(new File(path)));
+    }
+
+    @Override
+    public Uri toNativeUri(LocalFilesystemURL inputURL) {
+        // Entries have no native file, so the filesystem URL is the only way to reach them.
+        return inputURL.uri;
+    }
+
+    @Override
+    public LocalFilesystemURL toLocalUri(Uri inputURL) {
+        LocalFilesystemURL url = LocalFilesystemURL.parse(inputURL);
+        if (url == null || !name.equals(url.fsName)) {
+            return null;
+        }
+        boolean isDirectory = directories.containsKey(indexKey(url.path));
+        if (isDirectory != url.isDirectory && (isDirectory || files.containsKey(indexKey(url.path)))) {
+            return localUrlForPath(url.path, isDirectory);
+        }
+        return url;
+    }
+
+    @Override
+    public LocalFilesystemURL URLforFilesystemPath(String path) {
+        return null;
+    }
+
+    @Override
+    public String filesystemPathForURL(LocalFilesystemURL url) {
+        return null;
+    }
+
+    @Override
+    public JSONObject getFileForLocalURL(LocalFilesystemURL inputURL,
+                                         String path, JSONObject options, boolean directory)
+            throws FileExistsException, IOException, TypeMismatchException, EncodingException, JSONException {
+        if (options != null && options.optBoolean("create")) {
+            throw new UnsupportedOperationException("Archives are read-only");
+        }
+
+        String fullPath;
+        if (path.startsWith("/")) {
+            fullPath = indexKey(path);
+        } else {
+            fullPath = indexKey(inputURL.path + "/" + path);
+        }
+
+        boolean isDir = directories.containsKey(fullPath);
+        if (!isDir && !files.containsKey(fullPath)) {
+            throw new FileNotFoundException("path does not exist");
+        }
+        if (directory && !isDir) {
+            throw new TypeMismatchException("path doesn't exist or is file");
+        } else if (!directory && isDir) {
+            throw new TypeMismatchException("path doesn't exist or is directory");
+        }
+
+        return makeEntryForURL(localUrlForPath(fullPath, isDir));
+    }
+
+    @Override
+    public boolean exists(LocalFilesystemURL inputURL) {
+        String path = indexKey(inputURL.path);
+        return directories.containsKey(path) || files.containsKey(path);
+    }
+
+    @Override
+    public LocalFilesystemURL[] listChildren(LocalFilesystemURL inputURL) throws FileNotFoundException {
+        String path = indexKey(inputURL.path);
+        TreeMap<String, Boolean> children = directories.get(path);
+        if (children == null) {
+            if (files.containsKey(path)) {
+                return null;
+            }
+            throw new FileNotFoundException();
+        }
+        String prefix = "/".equals(path) ? "/" : path + '/';
+        LocalFilesystemURL[] entries = new LocalFilesystemURL[children.size()];
+        int i = 0;
+        for (Map.Entry<String, Boolean> child : children.entrySet()) {
+            entries[i++] = localUrlForPath(prefix + child.getKey(), child.getValue());
+        }
+        return entries;
+    }
+
+    @Override
+    public JSONObject getFileMetadataForLocalURL(LocalFilesystemURL inputURL) throws FileNotFoundException {
+        String path = indexKey(inputURL.path);
+        boolean isDirectory = directories.containsKey(path);
+        ZipEntryInfo entry = isDirectory ? null : requireFile(inputURL);
+
+        JSONObject metadata = new JSONObject();
+        try {
+            metadata.put("size", isDirectory ? 0 : entry.size);
+            metadata.put("type", isDirectory ? "text/directory" : mimeTypeForPath(path));
+            metadata.put("name", "/".equals(path) ? archiveFile.getName() : nameOf(path));
+            metadata.put("fullPath", inputURL.path);
+            metadata.put("lastModifiedDate", isDirectory ? 0 : entry.lastModified);
+        } catch (JSONException e) {
+            return null;
+        }
+        return metadata;
+    }
+
+    @Override
+    public CordovaResourceApi.OpenForReadResult openForRead(LocalFilesystemURL inputURL) throws IOException {
+        ZipEntryInfo entry = requireFile(inputURL);
+        return new CordovaResourceApi.OpenForReadResult(inputURL.uri, openEntry(entry, 0),
+                mimeTypeForPath(inputURL.path), entry.size, null);
+    }
+
+    @Override
+    public void readFileAtURL(LocalFilesystemURL inputURL, long start, long end,
+                              ReadFileCallback readFileCallback) throws IOException {
+        ZipEntryInfo entry = requireFile(inputURL);
+        if (end < 0 || end > entry.size) {
+            end = entry.size;
+        }
+        InputStream inputStream = openEntry(entry, start);
+        try {
+            long numBytesToRead = Math.max(0, end - start);
+            readFileCallback.handleData(new LimitedInputStream(inputStream, numBytesToRead), mimeTypeForPath(inputURL.path), numBytesToRead);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    @Override
+    public JSONObject copyFileToURL(LocalFilesystemURL destURL, String newName,
+            Filesystem srcFs, LocalFilesystemURL srcURL, boolean move) throws NoModificationAllowedException {
+        throw new NoModificationAllowedException("Archives are read-only");
+    }
+
+    @Override
+    long writeToFileAtURL(LocalFilesystemURL inputURL, String data, int offset, boolean isBinary) throws NoModificationAllowedException {
+        throw new NoModificationAllowedException("Archives are read-only");
+    }
+
+    @Override
+    long truncateFileAtURL(LocalFilesystemURL inputURL, long size) throws NoModificationAllowedException {
+        throw new NoModificationAllowedException("Archives are read-only");
+    }
+
+    @Override
+    boolean removeFileAtLocalURL(LocalFilesystemURL inputURL) throws NoModificationAllowedException {
+        throw new NoModificationAllowedException("Archives are read-only");
+    }
+
+    @Override
+    boolean recursiveRemoveFileAtLocalURL(LocalFilesystemURL inputURL) throws NoModificationAllowedException {
+        throw new NoModificationAllowedException("Archives are read-only");
+    }
+
+    @Override
+    public boolean canRemoveFileAtLocalURL(LocalFilesystemURL inputURL) {
+        return false;
+    }
+}
@@ -4119,6 +4119,200 @@ exports.defineAutoTests = function () {
                         entry.remove(transfer, failed.bind(null, done, 'entry.remove - Error removing file: ' + file2));
                     }, transfer);
                 }, MEDIUM_TIMEOUT);
+                it('file.spec.148 cdvfile asset responses should advertise byte ranges', function (done) {
+                    resolveLocalFileSystemURL('file:///android_asset/www/fixtures/asset-test/asset-test.txt', function (entry) { // eslint-disable-line no-undef
+                        entry.file(function (file) {
+                            fetch(entry.toInternalURL()).then(function (response) {
+                                expect(response.ok).toBe(true);
+                                expect(response.headers.get('Accept-Ranges')).toEqual('bytes');
+                                expect(response.headers.get('Content-Length')).toEqual(String(file.size));
+                                done();
+                            }, failed.bind(null, done, 'fetch - Error fetching asset through the path handler'));
+                        }, failed.bind(null, done, 'entry.file - Error reading asset file'));
+                    }, failed.bind(null, done, 'resolveLocalFileSystemURL failed for assets'));
+                }, MEDIUM_TIMEOUT);
+            });
+            describe('low memory', function () {
+                it('file.spec.149 FileReader should finish a read in smaller chunks while reads are limited', function (done) {
+                    const fileName = 'low.memory.read';
+                    let contents = '';
+                    while (contents.length < 100 * 1024) {
+                        contents += 'abcdefghijklmnopqrstuvwxyz0123456789';
+                    }
+                    const restore = function (next) {
+                        cordova.exec(next, next, 'File', '_simulateLowMemory', [-1]); // eslint-disable-line no-undef
+                    };
+                    const fail = function (msg) {
+                        return function (error) {
+                            restore(function () {
+                                failed(done, msg, error);
+                            });
+                        };
+                    };
+                    createFile(fileName, function (fileEntry) {
+                        fileEntry.createWriter(function (writer) {
+                            writer.onwriteend = function () {
+                                cordova.exec(function () { // eslint-disable-line no-undef
+                                    fileEntry.file(function (file) {
+                                        const reader = new FileReader(); // eslint-disable-line no-undef
+                                        reader.onerror = fail('reader.onerror - Error reading file: ' + fileName);
+                                        reader.onload = function (evt) {
+                                            restore(function () {
+                                                expect(evt.target.result).toEqual(contents);
+                                                deleteEntry(fileName, done);
+                                            });
+                                        };
+                                        reader.readAsText(file);
+                                    }, fail('fileEntry.file - Error reading file: ' + fileName));
+                                }, fail('_simulateLowMemory - Error limiting reads'), 'File', '_simulateLowMemory', [32 * 1024]);
+                            };
+                            writer.onerror = fail('writer.onerror - Error writing file: ' + fileName);
+                            writer.write(contents);
+                        }, fail('fileEntry.createWriter - Error creating writer: ' + fileName));
+                    }, fail('createFile - Error creating file: ' + fileName));
+                }, MEDIUM_TIMEOUT);
+            });
+            describe('batch', function () {
+                it('file.spec.150 later steps should be able to use the results of earlier steps', function (done) {
+                    const dirName = 'batch.dir';
+                    deleteEntry(dirName, function () {
+                        cordova.exec(function (results) { // eslint-disable-line no-undef
+                            expect(results.length).toBe(3);
+                            expect(results[0].ok).toBe(true);
+                            expect(results[0].result.isDirectory).toBe(true);
+                            expect(results[1].ok).toBe(true);
+                            expect(results[1].result.isFile).toBe(true);
+                            expect(results[1].result.fullPath).toCanonicallyMatch(joinURL(joinURL(root.fullPath, dirName), 'batch.file'));
+                            expect(results[2].ok).toBe(true);
+                            expect(results[2].result).toBe(5);
+                            root.getFile(dirName + '/batch.file', {}, function (fileEntry) {
+                                fileEntry.file(function (file) {
+                                    expect(file.size).toBe(5);
+                                    deleteEntry(dirName, done);
+                                }, failed.bind(null, done, 'fileEntry.file - Error reading file: batch.file'));
+                            }, failed.bind(null, done, 'root.getFile - Error getting file created by the batch'));
+                        }, failed.bind(null, done, 'batch - Error running batch'), 'File', 'batch', [[
+                            { action: 'getDirectory', args: [root.toURL(), dirName, { create: true }] },
+                            { action: 'getFile', args: [{ $ref: 0, field: 'nativeURL' }, 'batch.file', { create: true }] },
+                            { action: 'write', args: [{ $ref: 1, field: 'nativeURL' }, 'Hello', 0, false] }
+                        ]]);
+                    }, failed.bind(null, done, 'deleteEntry - Error removing directory: ' + dirName));
+                });
+                it('file.spec.151 should stop at the first failing step unless continueOnError is set', function (done) {
+                    const steps = [
+                        { action: 'getFile', args: [root.toURL(), 'batch.does.not.exist', {}] },
+                        { action: 'batch', args: [[]] },
+                        { action: 'getFileMetadata', args: [root.toURL()] }
+                    ];
+                    cordova.exec(function (results) { // eslint-disable-line no-undef
+                        expect(results.length).toBe(1);
+                        expect(results[0].ok).toBe(false);
+                        expect(results[0].error).toBe(FileError.NOT_FOUND_ERR); // eslint-disable-line no-undef
+                        cordova.exec(function (results) { // eslint-disable-line no-undef
+                            expect(results.length).toBe(3);
+                            expect(results[0].ok).toBe(false);
+                            // Batches don't nest.
+                            expect(results[1].ok).toBe(false);
+                            expect(results[1].error).toBe(FileError.SYNTAX_ERR); // eslint-disable-line no-undef
+                            expect(results[2].ok).toBe(true);
+                            done();
+                        }, failed.bind(null, done, 'batch - Error running batch with continueOnError'), 'File', 'batch', [steps, { continueOnError: true }]);
+                    }, failed.bind(null, done, 'batch - Error running batch'), 'File', 'batch', [steps]);
+                });
+            });
+            describe('abort', function () {
+                it('file.spec.152 FileReader.abort() should stop the read on the native side', function (done) {
+                    const fileName = 'abort.read';
+                    const chunkSize = FileReader.READ_CHUNK_SIZE; // eslint-disable-line no-undef
+                    let contents = '';
+                    while (contents.length < 8 * 1024 * 1024) {
+                        contents += 'abcdefghijklmnopqrstuvwxyz0123456789';
+                    }
+                    const fail = function (msg) {
+                        return function (error) {
+                            FileReader.READ_CHUNK_SIZE = chunkSize; // eslint-disable-line no-undef
+                            failed(done, msg, error);
+                        };
+                    };
+                    createFile(fileName, function (fileEntry) {
+                        fileEntry.createWriter(function (writer) {
+                            writer.onwriteend = function () {
+                                fileEntry.file(function (file) {
+                                    cordova.exec(function () { // eslint-disable-line no-undef
+                                        const reader = new FileReader(); // eslint-disable-line no-undef
+                                        let aborts = 0;
+                                        let loads = 0;
+                                        reader.onabort = function () {
+                                            aborts++;
+                                        };
+                                        reader.onload = function () {
+                                            loads++;
+                                        };
+                                        reader.onerror = fail('reader.onerror - Error reading file: ' + fileName);
+                                        // Read the whole file in one request, so that it is still running natively when aborted.
+                                        FileReader.READ_CHUNK_SIZE = file.size; // eslint-disable-line no-undef
+                                        reader.readAsArrayBuffer(file);
+                                        FileReader.READ_CHUNK_SIZE = chunkSize; // eslint-disable-line no-undef
+                                        reader.abort();
+                                        // Leave the native side time to notice the abort.
+                                        setTimeout(function () {
+                                            expect(aborts).toBe(1);
+                                            expect(loads).toBe(0);
+                                            expect(reader.result).toBeNull();
+                                            cordova.exec(function (stats) { // eslint-disable-line no-undef
+                                                // Only the native side gives up with this error; JS alone would let the read finish.
+                                                expect(stats.errors.OperationAbortedException).toBe(1);
+                                                deleteEntry(fileName, done);
+                                            }, fail('getStats - Error getting statistics'), 'File', 'getStats', []);
+                                        }, 1000);
+                                    }, fail('resetStats - Error resetting statistics'), 'File', 'resetStats', []);
+                                }, fail('fileEntry.file - Error reading file: ' + fileName));
+                            };
+                            writer.onerror = fail('writer.onerror - Error writing file: ' + fileName);
+                            writer.write(contents);
+                        }, fail('fileEntry.createWriter - Error creating writer: ' + fileName));
+                    }, fail('createFile - Error creating file: ' + fileName));
+                }, MEDIUM_TIMEOUT);
+            });
+            describe('operation statistics', function () {
+                it('file.spec.153 getStats should count actions since resetStats', function (done) {
+                    const fileName = 'stats.file';
+                    cordova.exec(function () { // eslint-disable-line no-undef
+                        createFile(fileName, function () {
+                            cordova.exec(function (stats) { // eslint-disable-line no-undef
+                                expect(stats.since).toBeDefined();
+                                expect(stats.bucketBoundsMicros.length).toBeGreaterThan(0);
+                                expect(stats.actions.getFile).toBeDefined();
+                                expect(stats.actions.getFile.latency.count).toBeGreaterThan(0);
+                                expect(stats.actions.getFile.errors).toBe(0);
+                                deleteEntry(fileName, done);
+                            }, failed.bind(null, done, 'getStats - Error getting statistics'), 'File', 'getStats', []);
+                        }, failed.bind(null, done, 'createFile - Error creating file: ' + fileName));
+                    }, failed.bind(null, done, 'resetStats - Error resetting statistics'), 'File', 'resetStats', []);
+                });
+            });
+            describe('memory filesystem', function () {
+                it('file.spec.154 should create and write files without asking for a permission', function (done) {
+                    const fileName = 'memory.file';
+                    window.resolveLocalFileSystemURL('https://localhost/__cdvfile_memory__/', function (memoryRoot) {
+                        // Steps that would need a permission fail with SECURITY_ERR inside a batch.
+                        cordova.exec(function (results) { // eslint-disable-line no-undef
+                            expect(results.length).toBe(3);
+                            expect(results[0].ok).toBe(true);
+                            expect(results[1].ok).toBe(true);
+                            expect(results[1].result).toBe(5);
+                            expect(results[2].ok).toBe(true);
+                            expect(results[2].result.length).toBe(1);
+                            memoryRoot.getFile(fileName, {}, function (fileEntry) {
+                                fileEntry.remove(done, failed.bind(null, done, 'fileEntry.remove - Error removing file: ' + fileName));
+                            }, failed.bind(null, done, 'memoryRoot.getFile - Error getting file: ' + fileName));
+                        }, failed.bind(null, done, 'batch - Error running batch'), 'File', 'batch', [[
+                            { action: 'getFile', args: [memoryRoot.toInternalURL(), fileName, { create: true }] },
+                            { action: 'write', args: [{ $ref: 0, field: 'nativeURL' }, 'Hello', 0, false] },
+                            { action: 'readEntries', args: [memoryRoot.toInternalURL()] }
+                        ]]);
+                    }, failed.bind(null, done, 'resolveLocalFileSystemURL - Error resolving the memory filesystem'));
+                });
             });
             it('file.spec.144 copyTo: asset directory', function (done) {
                 const srcUrl = 'file:///android_asset/www/fixtures/asset-test';
@@ -51,6 +51,12 @@ const FileReader = function () {
  */
 FileReader.READ_CHUNK_SIZE = 256 * 1024;
 
+// The smallest chunk to fall back to when the native side is short of memory and refuses a chunk.
+const MIN_READ_CHUNK_SIZE = 16 * 1024;
+
+// Identifies each read to the native side, so that it can be aborted there as well.
+let nextOperationId = 1;
+
 // States
 FileReader.EMPTY = 0;
 FileReader.LOADING = 1;
@@ -103,7 +109,9 @@ function initRead (reader, file) {
     reader._result = null;
     reader._error = null;
     reader._progress = 0;
+    reader._chunkSize = FileReader.READ_CHUNK_SIZE;
     reader._readyState = FileReader.LOADING;
+    reader._operationId = 'op:r' + nextOperationId++;
 
     if (typeof file.localURL === 'string') {
         reader._localURL = file.localURL;
@@ -133,7 +141,8 @@ function readSuccessCallback (readType, encoding, offset, totalSize, accumulate,
         return;
     }
 
-    let CHUNK_SIZE = FileReader.READ_CHUNK_SIZE;
+    const chunkSize = this._chunkSize || FileReader.READ_CHUNK_SIZE;
+    let CHUNK_SIZE = chunkSize;
     if (readType === 'readAsDataURL') {
         // Windows proxy does not support reading file slices as Data URLs
         // so read the whole file at once.
@@ -142,7 +151,7 @@ function readSuccessCallback (readType, encoding, offset, totalSize, accumulate,
             : (
                 // Calculate new chunk size for data URLs to be multiply of 3
                 // Otherwise concatenated base64 chunks won't be valid base64 data
-                FileReader.READ_CHUNK_SIZE - (FileReader.READ_CHUNK_SIZE % 3) + 3
+                chunkSize - (chunkSize % 3) + 3
             );
     }
 
@@ -163,9 +172,10 @@ function readSuccessCallback (readType, encoding, offset, totalSize, accumulate,
         if (encoding) {
             execArgs.splice(1, 0, encoding);
         }
+        execArgs.push(this._operationId);
         exec(
             readSuccessCallback.bind(this, readType, encoding, offset, totalSize, accumulate),
-            readFailureCallback.bind(this),
+            readFailureCallback.bind(this, readSuccessCallback.bind(this, readType, encoding, offset, totalSize, accumulate)),
             'File', readType, execArgs);
     } else {
         this._readyState = FileReader.DONE;
@@ -182,13 +192,21 @@ function readSuccessCallback (readType, encoding, offset, totalSize, accumulate,
 
 /**
  * Callback used by the following read* functions to handle errors.
- * Must be bound to the FileReader's this, e.g. readFailureCallback.bind(this)
+ * Must be bound to the FileReader's this and a function that reads the next chunk again,
+ * e.g. readFailureCallback.bind(this, readSuccessCallback.bind(this, ...))
  */
-function readFailureCallback (e) {
+function readFailureCallback (retry, e) {
     if (this._readyState === FileReader.DONE) {
         return;
     }
 
+    // The native side refuses large chunks while memory is low, so continue in smaller ones.
+    if (e === FileError.QUOTA_EXCEEDED_ERR && this._chunkSize > MIN_READ_CHUNK_SIZE) {
+        this._chunkSize = Math.max(MIN_READ_CHUNK_SIZE, Math.floor(this._chunkSize / 4));
+        retry();
+        return;
+    }
+
     this._readyState = FileReader.DONE;
     this._result = null;
     this._error = new FileError(e);
@@ -217,6 +235,11 @@ FileReader.prototype.abort = function () {
 
     this._readyState = FileReader.DONE;
 
+    // Stop the native side from reading any further.
+    if (cordova.platformId === 'android') {
+        exec(null, null, 'File', 'abort', [this._operationId]);
+    }
+
     // If abort callback
     if (typeof this.onabort === 'function') {
         this.onabort(new ProgressEvent('abort', { target: this }));
@@ -72,6 +72,9 @@ const FileWriter = function (file) {
     this.onerror = null;
 };
 
+// Identifies each write to the native side, so that it can be aborted there as well.
+let nextOperationId = 1;
+
 // States
 FileWriter.INIT = 0;
 FileWriter.WRITING = 1;
@@ -91,6 +94,14 @@ FileWriter.prototype.abort = function () {
 
     this.readyState = FileWriter.DONE;
 
+    // Stop reading a blob that was about to be written, or the native write itself.
+    if (this._pendingReader) {
+        this._pendingReader.abort();
+    }
+    if (this._operationId && cordova.platformId === 'android') {
+        exec(null, null, 'File', 'abort', [this._operationId]);
+    }
+
     // If abort callback
     if (typeof this.onabort === 'function') {
         this.onabort(new ProgressEvent('abort', { target: this }));
@@ -118,11 +129,15 @@ FileWriter.prototype.write = function (data, isPendingBlobReadResult) {
     if (data instanceof File || (!isProxySupportBlobNatively && supportsBinary && data instanceof Blob)) {
         const fileReader = new FileReader();
         /* eslint-enable no-undef */
+        this._pendingReader = fileReader;
         fileReader.onload = function () {
+            that._pendingReader = null;
             // Call this method again, with the arraybuffer as argument
             FileWriter.prototype.write.call(that, this.result, true /* isPendingBlobReadResult */);
         };
         fileReader.onerror = function () {
+            that._pendingReader = null;
+
             // DONE state
             that.readyState = FileWriter.DONE;
 
@@ -161,6 +176,7 @@ FileWriter.prototype.write = function (data, isPendingBlobReadResult) {
 
     // WRITING state
     this.readyState = FileWriter.WRITING;
+    this._operationId = 'op:w' + nextOperationId++;
 
     const me = this;
 
@@ -219,7 +235,7 @@ FileWriter.prototype.write = function (data, isPendingBlobReadResult) {
             if (typeof me.onwriteend === 'function') {
                 me.onwriteend(new ProgressEvent('writeend', { target: me }));
             }
-        }, 'File', 'write', [this.localURL, data, this.position, isBinary]);
+        }, 'File', 'write', [this.localURL, data, this.position, isBinary, this._operationId]);
 };
 
 /**
@@ -268,6 +284,7 @@ FileWriter.prototype.truncate = function (size) {
 
     // WRITING state
     this.readyState = FileWriter.WRITING;
+    this._operationId = 'op:w' + nextOperationId++;
 
     const me = this;
 
@@ -324,7 +341,7 @@ FileWriter.prototype.truncate = function (size) {
             if (typeof me.onwriteend === 'function') {
                 me.onwriteend(new ProgressEvent('writeend', { target: me }));
             }
-        }, 'File', 'truncate', [this.localURL, size]);
+        }, 'File', 'truncate', [this.localURL, size, this._operationId]);
 };
 
 module.exports = FileWriter;